@@ -0,0 +1,20 @@
+import java.util.List;
+import java.util.Map;
+// a language model that can be written out as ARPA-style backoff tables:
+// log p(w | h) = prob(h w)                    if h w was seen
+//              = backoff(h) + log p(w | h')   otherwise, h' = h without its first word
+public interface BackoffLanguageModel extends ReadOnlyLanguageModel {
+
+  // highest n-gram order of the model.
+  public int getOrder();
+
+  // log-probability of a word that never occurred in training.
+  public double getUnknownLogProb();
+
+  // log backoff weight used when the context itself was never seen.
+  public double getDefaultBackoff();
+
+  // n-grams of the given order (1 = unigrams) mapped to {log-probability, log backoff}.
+  public Map<List<String>, double[]> getNgrams(int order);
+
+}
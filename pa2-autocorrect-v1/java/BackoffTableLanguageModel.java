@@ -0,0 +1,85 @@
+/** A read-only backoff language model stored as tables of n-grams, each with its
+  * log-probability and log backoff weight:
+  *   log p(w | h) = prob(h w)                    if h w is in the tables
+  *                = backoff(h) + log p(w | h')   otherwise, h' = h without its first word
+  * where a context missing from the tables has the default backoff weight, and a word
+  * missing from them the unknown word log-probability.
+  *
+  * Subclasses only say how the tables are stored: lookup() finds the record of an n-gram,
+  * prob() and backoff() decode its values. The backoff walk and batch scoring are here.
+  */
+public abstract class BackoffTableLanguageModel extends BatchLanguageModel {
+
+  protected int order;
+  protected double unknownLogProb;
+  protected double defaultBackoff;
+
+  // record of the k-gram ids[from] .. ids[from + k - 1], whose ids are all >= 0;
+  // -1 if it is not in the tables.
+  protected abstract long lookup(int[] ids, int from, int k);
+
+  // log-probability of the k-gram of record.
+  protected abstract double prob(int k, long record);
+
+  // log backoff weight of the k-gram of record, as the context of a longer n-gram.
+  protected abstract double backoff(int k, long record);
+
+  public int getOrder() {
+    return order;
+  }
+
+  public double getUnknownLogProb() {
+    return unknownLogProb;
+  }
+
+  public double getDefaultBackoff() {
+    return defaultBackoff;
+  }
+
+  protected double term(int[] ids, int i) {
+    return logProb(ids, Math.max(0, i - order + 1), i);
+  }
+
+  /** log p(ids[end] | ids[start, end)), backing off to shorter contexts as needed. */
+  protected double logProb(int[] ids, int start, int end) {
+    if(ids[end] < 0) {
+      // unknown word: pay the backoffs down to the unigram level
+      double backoff = 0.0;
+      for(int from = start; from < end; from++) {
+        backoff += contextBackoff(ids, from, end);
+      }
+      return backoff + unknownLogProb;
+    }
+    double backoff = 0.0;
+    for(int from = start; from <= end; from++) {
+      int k = end - from + 1;
+      long record = find(ids, from, k);
+      if(record >= 0) {
+        return backoff + prob(k, record);
+      }
+      backoff += contextBackoff(ids, from, end);
+    }
+    return backoff + unknownLogProb;
+  }
+
+  // backoff weight of the context ids[from, end)
+  double contextBackoff(int[] ids, int from, int end) {
+    int k = end - from;
+    long record = find(ids, from, k);
+    if(record < 0) {
+      return defaultBackoff;
+    }
+    return backoff(k, record);
+  }
+
+  // record of the k-gram starting at ids[from], -1 if missing or it has an unknown word
+  private long find(int[] ids, int from, int k) {
+    for(int i = from; i < from + k; i++) {
+      if(ids[i] < 0) {
+        return -1;
+      }
+    }
+    return lookup(ids, from, k);
+  }
+
+}
@@ -0,0 +1,117 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/** A language model whose score is a sum of one term per word, each depending on the
+  * word and the getOrder() - 1 words before it, which can score many variants of one
+  * sentence in a single call.
+  *
+  * Each variant replaces one word, so only the terms of the n-grams containing it are
+  * recomputed; the others are computed once and shared by all the variants. The terms
+  * of a variant are then summed in the same order as score() sums them, so each score
+  * is exactly score() of the variant, not just close to it.
+  */
+public abstract class BatchLanguageModel implements ReadOnlyLanguageModel {
+
+  // highest n-gram order: term(ids, i) only reads ids[i - getOrder() + 1] .. ids[i].
+  public abstract int getOrder();
+
+  // id of word, -1 if it is not in the vocabulary.
+  public abstract int wordId(String word);
+
+  // log-probability of ids[i] given the words before it, i >= 1.
+  protected abstract double term(int[] ids, int i);
+
+  public double score(List<String> sentence) {
+    int[] ids = ids(sentence);
+    double score = 0.0;
+    for(int i = 1; i < ids.length; i++) {
+      score += term(ids, i);
+    }
+    return score;
+  }
+
+  // scores[j] is the score of sentence with the word at positions[j] replaced by
+  // replacements[j]. sentence itself is not modified.
+  public double[] scoreVariants(List<String> sentence, int[] positions, String[] replacements) {
+    int[] ids = ids(sentence);
+    double[] terms = new double[ids.length];
+    for(int i = 1; i < ids.length; i++) {
+      terms[i] = term(ids, i);
+    }
+    double[] changed = new double[getOrder()];
+    double[] scores = new double[positions.length];
+    for(int j = 0; j < positions.length; j++) {
+      int position = positions[j];
+      int original = ids[position];
+      ids[position] = wordId(replacements[j]);
+      int first = Math.max(1, position);
+      int end = Math.min(ids.length, position + getOrder());
+      for(int i = first; i < end; i++) {
+        changed[i - first] = term(ids, i);
+      }
+      ids[position] = original;
+      double score = 0.0;
+      for(int i = 1; i < ids.length; i++) {
+        score += i >= first && i < end ? changed[i - first] : terms[i];
+      }
+      scores[j] = score;
+    }
+    return scores;
+  }
+
+  protected int[] ids(List<String> sentence) {
+    int[] ids = new int[sentence.size()];
+    for(int i = 0; i < ids.length; i++) {
+      ids[i] = wordId(sentence.get(i));
+    }
+    return ids;
+  }
+
+  /** Checks that scoreVariants() gives exactly score() of every variant, for the edits
+    * SpellCorrect tries on the dev sentences, under the Stupid Backoff and Kneser-Ney
+    * models and an 8 bit QuantizedLanguageModel of the latter.
+    */
+  public static void main(String[] args) {
+    HolbrookCorpus train = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus dev = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+    CandidateCache candidates = new CandidateCache(new EditModel("../data/count_1edit.txt", train));
+    BatchLanguageModel[] models = {
+      new BigramStupidBackoffLanguageModel(train), new KneserNeyLanguageModel(train),
+      new QuantizedLanguageModel(new KneserNeyLanguageModel(train), 8)
+    };
+    for(BatchLanguageModel model : models) {
+      int variants = 0;
+      int differ = 0;
+      for(Sentence test : dev.generateTestCases()) {
+        List<String> sentence = test.getErrorSentence();
+        List<Integer> positions = new ArrayList<Integer>();
+        List<String> replacements = new ArrayList<String>();
+        for(int i = 1; i < sentence.size() - 1; i++) {
+          CandidateCache.Candidates edits = candidates.get(sentence.get(i));
+          for(int c = 0; c < edits.size(); c++) {
+            positions.add(i);
+            replacements.add(edits.words[c]);
+          }
+        }
+        int[] positionArray = new int[positions.size()];
+        for(int j = 0; j < positionArray.length; j++) {
+          positionArray[j] = positions.get(j);
+        }
+        double[] scores = model.scoreVariants(sentence, positionArray,
+            replacements.toArray(new String[replacements.size()]));
+        List<String> variant = new ArrayList<String>(sentence);
+        for(int j = 0; j < scores.length; j++) {
+          variant.set(positionArray[j], replacements.get(j));
+          if(scores[j] != model.score(variant)) {
+            differ++;
+          }
+          variant.set(positionArray[j], sentence.get(positionArray[j]));
+          variants++;
+        }
+      }
+      System.out.println(String.format("%-32s %d variants, %d differ from score(): %s",
+          model.getClass().getSimpleName(), variants, differ, differ == 0 ? "PASS" : "*FAIL*"));
+    }
+  }
+
+}
@@ -0,0 +1,269 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/** Noisy channel decoder that may correct any number of words in a sentence.
+  *
+  * The sentence is decoded left to right. Every position offers the candidates of the edit
+  * model (the word itself included), from the same CandidateCache as SpellCorrect, and every
+  * hypothesis carries the language model context of its last getOrder() - 1 words, so
+  * extending it costs one language model lookup. Only that context affects the future
+  * scores, so extensions ending in the same context are recombined, in a table of flat
+  * arrays reused from position to position: only the extensions that survive the beam
+  * become Hypothesis objects. The beam keeps the best beamWidth hypotheses that also lie
+  * within threshold of the best one. Every changed word costs an extra correctionPenalty,
+  * a prior that keeps the decoder from rewriting rare but correct words.
+  *
+  * Unlike SpellCorrect.correctSentence(), which always changes exactly one word, the decoder
+  * may leave a sentence alone or fix several words, so it scores lower on the dev set (where
+  * every sentence has exactly one error) but fits real text better.
+  */
+public class BeamSearchDecoder {
+
+  protected CandidateCache candidates;
+  protected StatefulLanguageModel languageModel;
+  protected int beamWidth;
+  protected double threshold; // in log space
+  protected double correctionPenalty; // log prior cost of every changed word
+
+  public BeamSearchDecoder(CandidateCache candidates, StatefulLanguageModel languageModel,
+                           int beamWidth, double threshold, double correctionPenalty) {
+    this.candidates = candidates;
+    this.languageModel = languageModel;
+    this.beamWidth = beamWidth;
+    this.threshold = threshold;
+    this.correctionPenalty = correctionPenalty;
+  }
+
+  public BeamSearchDecoder(EditModel editModel, StatefulLanguageModel languageModel) {
+    this(new CandidateCache(editModel), languageModel, 16, 10.0, 2.5);
+  }
+
+  /** A partial correction: the words chosen so far, as a back-linked list. */
+  protected static class Hypothesis {
+    final Hypothesis previous;
+    final String word;
+    final int[] context; // the last getOrder() - 1 word ids, ending with word
+    final double score;
+
+    Hypothesis(Hypothesis previous, String word, int[] context, double score) {
+      this.previous = previous;
+      this.word = word;
+      this.context = context;
+      this.score = score;
+    }
+  }
+
+  /** The extensions of the beam at one position, recombined on their context. An open
+    * addressing table whose arrays grow as needed and are reused by clear().
+    */
+  private static final class Extensions {
+    final int context;
+    int[] keys = new int[0];       // the context of each slot, context ids per slot
+    int[] parents = new int[0];    // index in the beam of the hypothesis extended
+    int[] choices = new int[0];    // index of the candidate word
+    double[] scores = new double[0];
+    boolean[] full = new boolean[0];
+    int[] used = new int[0];       // the full slots, in order of insertion
+    int size = 0;
+
+    Extensions(int context) {
+      this.context = context;
+    }
+
+    // empties the table, with room for n extensions
+    void clear(int n) {
+      for(int k = 0; k < size; k++) {
+        full[used[k]] = false;
+      }
+      size = 0;
+      if(full.length < 2 * n) {
+        int capacity = Integer.highestOneBit(Math.max(2 * n - 1, 1)) << 1;
+        keys = new int[capacity * context];
+        parents = new int[capacity];
+        choices = new int[capacity];
+        scores = new double[capacity];
+        full = new boolean[capacity];
+        used = new int[capacity];
+      }
+    }
+
+    // adds the extension of parent by choice, whose window is window, unless one with the
+    // same context (window without its first id) scores at least as well
+    void offer(int[] window, int parent, int choice, double score) {
+      int mask = full.length - 1;
+      int h = 1;
+      for(int i = 1; i <= context; i++) {
+        h = 31 * h + window[i];
+      }
+      int slot = (h ^ (h >>> 16)) & mask;
+      while(full[slot]) {
+        if(sameContext(slot, window)) {
+          if(score > scores[slot]) {
+            parents[slot] = parent;
+            choices[slot] = choice;
+            scores[slot] = score;
+          }
+          return;
+        }
+        slot = (slot + 1) & mask;
+      }
+      full[slot] = true;
+      used[size++] = slot;
+      System.arraycopy(window, 1, keys, slot * context, context);
+      parents[slot] = parent;
+      choices[slot] = choice;
+      scores[slot] = score;
+    }
+
+    private boolean sameContext(int slot, int[] window) {
+      for(int i = 0; i < context; i++) {
+        if(keys[slot * context + i] != window[i + 1]) {
+          return false;
+        }
+      }
+      return true;
+    }
+  }
+
+  /** Returns the most likely correction of sentence. The first and last tokens
+    * (the sentence markers) are kept as they are.
+    */
+  public List<String> decode(List<String> sentence) {
+    if(sentence.size() < 2) {
+      return new ArrayList<String>(sentence);
+    }
+    int order = languageModel.getOrder();
+    int context = order - 1;
+    int[] start = new int[context];
+    Arrays.fill(start, -1);
+    if(context > 0) {
+      start[context - 1] = languageModel.wordId(sentence.get(0));
+    }
+    List<Hypothesis> beam = new ArrayList<Hypothesis>();
+    beam.add(new Hypothesis(null, sentence.get(0), start, 0.0));
+
+    int[] window = new int[order];
+    int[] ids = new int[16];
+    double[] editScores = new double[16];
+    int[] best = new int[beamWidth]; // slots of the best extensions, best first
+    Extensions next = new Extensions(context);
+    for(int i = 1; i < sentence.size(); i++) {
+      String word = sentence.get(i);
+      // candidate ids and channel scores, shared by every hypothesis
+      String[] words;
+      if(i == sentence.size() - 1) {
+        words = new String[] { word };
+        ids[0] = languageModel.wordId(word);
+        editScores[0] = 0.0;
+      } else {
+        CandidateCache.Candidates edits = candidates.get(word);
+        words = edits.words;
+        if(ids.length < words.length) {
+          ids = new int[words.length];
+          editScores = new double[words.length];
+        }
+        for(int c = 0; c < words.length; c++) {
+          ids[c] = languageModel.wordId(words[c]);
+          editScores[c] = c == edits.self ? edits.logProbs[c] : edits.logProbs[c] - correctionPenalty;
+        }
+      }
+
+      next.clear(beam.size() * words.length);
+      for(int h = 0; h < beam.size(); h++) {
+        Hypothesis hypothesis = beam.get(h);
+        System.arraycopy(hypothesis.context, 0, window, 0, context);
+        for(int c = 0; c < words.length; c++) {
+          window[context] = ids[c];
+          next.offer(window, h, c, hypothesis.score + editScores[c] + languageModel.logProb(window));
+        }
+      }
+      beam = survivors(next, beam, words, best);
+    }
+
+    List<String> corrected = new ArrayList<String>(sentence.size());
+    for(Hypothesis h = beam.get(0); h != null; h = h.previous) {
+      corrected.add(h.word);
+    }
+    Collections.reverse(corrected);
+    return corrected;
+  }
+
+  // the best beamWidth extensions of next within threshold of the best, as hypotheses,
+  // best first; best is a buffer of beamWidth slots
+  private List<Hypothesis> survivors(Extensions next, List<Hypothesis> beam, String[] words,
+                                     int[] best) {
+    int n = 0;
+    for(int k = 0; k < next.size; k++) {
+      int slot = next.used[k];
+      double score = next.scores[slot];
+      if(n == best.length && score <= next.scores[best[n - 1]]) {
+        continue;
+      }
+      int j = n < best.length ? n++ : n - 1;
+      while(j > 0 && next.scores[best[j - 1]] < score) {
+        best[j] = best[j - 1];
+        j--;
+      }
+      best[j] = slot;
+    }
+    double cutoff = next.scores[best[0]] - threshold;
+    while(n > 1 && next.scores[best[n - 1]] < cutoff) {
+      n--;
+    }
+    List<Hypothesis> survivors = new ArrayList<Hypothesis>(n);
+    for(int k = 0; k < n; k++) {
+      int slot = best[k];
+      survivors.add(new Hypothesis(beam.get(next.parents[slot]), words[next.choices[slot]],
+          Arrays.copyOfRange(next.keys, slot * next.context, (slot + 1) * next.context),
+          next.scores[slot]));
+    }
+    return survivors;
+  }
+
+  /** Accuracy of decode() on the dev set, where every test sentence has one error. */
+  public SpellingResult evaluate(HolbrookCorpus corpus) {
+    int numCorrect = 0;
+    int numTotal = 0;
+    for(Sentence sentence : corpus.generateTestCases()) {
+      if(sentence.isEmpty())
+        continue;
+      if(sentence.isCorrection(decode(sentence.getErrorSentence()))) {
+        numCorrect++;
+      }
+      numTotal++;
+    }
+    return new SpellingResult(numCorrect, numTotal);
+  }
+
+  /** Compares accuracy and throughput with SpellCorrect's single-error search. */
+  public static void main(String[] args) {
+    HolbrookCorpus trainingCorpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus devCorpus = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+    KneserNeyLanguageModel lm = new KneserNeyLanguageModel(trainingCorpus);
+    SpellCorrect speller = new SpellCorrect(lm, trainingCorpus);
+    int sentences = devCorpus.generateTestCases().size();
+
+    for(int round = 0; round < 2; round++) { // the first round warms up the JIT
+      long start = System.nanoTime();
+      SpellingResult single = speller.evaluate(devCorpus);
+      long singleTime = System.nanoTime() - start;
+      System.out.println(String.format("single error search: %s, %.0f sentences/s",
+          single, sentences / (singleTime / 1e9)));
+
+      int[] widths = { 1, 4, 16, 64 };
+      double[] penalties = { 0.0, 2.5, 5.0, 10.0 };
+      for(int width : widths) {
+        for(double penalty : penalties) {
+          BeamSearchDecoder decoder = new BeamSearchDecoder(speller.candidates, lm, width, 10.0, penalty);
+          start = System.nanoTime();
+          SpellingResult beam = decoder.evaluate(devCorpus);
+          long beamTime = System.nanoTime() - start;
+          System.out.println(String.format("beam search, width %d, penalty %.1f: %s, %.0f sentences/s",
+              width, penalty, beam, sentences / (beamTime / 1e9)));
+        }
+      }
+    }
+  }
+}
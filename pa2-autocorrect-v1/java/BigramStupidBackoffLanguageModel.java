@@ -0,0 +1,88 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Bigram model with stupid backoff to an add-one smoothed unigram model:
+  * s(w2 | w1) = c(w1 w2) / c(w1) if the bigram was seen, 0.4 * p_laplace(w2) otherwise.
+  *
+  * The model the binary format, the quantizer and the benchmarks use, over the columnar
+  * counts of CompactCorpus; StupidBackoffLanguageModel is left for the assignment.
+  */
+public class BigramStupidBackoffLanguageModel extends BatchLanguageModel
+    implements LanguageModel, BackoffLanguageModel {
+
+  protected static final double BACKOFF = Math.log(0.4);
+
+  protected Vocabulary vocabulary;
+  protected NgramCounter counts; // unigram and bigram counts, by word id
+
+  public BigramStupidBackoffLanguageModel(HolbrookCorpus corpus) {
+    train(corpus);
+  }
+
+  /** Counts the unigrams and bigrams of corpus. */
+  public void train(HolbrookCorpus corpus) {
+    CompactCorpus compact = corpus.compact();
+    vocabulary = compact.vocabulary();
+    counts = new NgramCounter(compact, 2);
+  }
+
+  // add-one smoothed unigram log-probability.
+  protected double unigramLogProb(int word) {
+    return Math.log((counts.count(word) + 1.0) / (counts.tokens() + vocabulary.size()));
+  }
+
+  // log s(word | previous)
+  protected double logProb(int previous, int word) {
+    int bigramCount = counts.count(previous, word);
+    if(bigramCount > 0) {
+      return Math.log((double) bigramCount / counts.count(previous));
+    }
+    return BACKOFF + unigramLogProb(word);
+  }
+
+  protected double term(int[] ids, int i) {
+    return logProb(ids[i - 1], ids[i]);
+  }
+
+  public int wordId(String word) {
+    return vocabulary.id(word);
+  }
+
+  public int getOrder() {
+    return 2;
+  }
+
+  public double getUnknownLogProb() {
+    return unigramLogProb(-1);
+  }
+
+  public double getDefaultBackoff() {
+    return BACKOFF;
+  }
+
+  public Map<List<String>, double[]> getNgrams(int order) {
+    Map<List<String>, double[]> ngrams = new HashMap<List<String>, double[]>();
+    if(order == 1 || order == 2) {
+      for(LongIntMap map : counts.counts(order)) {
+        for(int slot = 0; slot < map.capacity(); slot++) {
+          if(!map.isUsed(slot)) {
+            continue;
+          }
+          long key = map.keyAt(slot);
+          if(order == 1) {
+            String word = vocabulary.word((int) key);
+            ngrams.put(Arrays.asList(word), new double[] { unigramLogProb((int) key), BACKOFF });
+          } else {
+            int previous = counts.word(key, 0, 2);
+            double logProb = Math.log((double) map.valueAt(slot) / counts.count(previous));
+            ngrams.put(Arrays.asList(vocabulary.word(previous), vocabulary.word(counts.word(key, 1, 2))),
+                new double[] { logProb, 0.0 });
+          }
+        }
+      }
+    }
+    return ngrams;
+  }
+}
@@ -0,0 +1,422 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** A backoff language model read directly from a memory-mapped binary file.
+  *
+  * The file holds a sorted vocabulary and, for every order, a table of fixed-size
+  * records sorted by word ids, with log-probabilities and backoff weights quantized
+  * to one byte each. Nothing is parsed at load time, so opening a model is instant and
+  * processes mapping the same file share a single page-cache copy of it.
+  *
+  * Layout (big-endian):
+  *   int magic ("HLM2"), int order, int bits (8 or 16), int vocabSize,
+  *   float unknownLogProb, float defaultBackoff, float[2^bits] probability codebook,
+  *   float[2^bits] backoff codebook, long[order] n-gram counts,
+  *   int[vocabSize + 1] offsets of the words into the following UTF-8 blob, the blob,
+  *   then one table per order, codes being bytes or chars depending on bits:
+  *     order 1: (prob, backoff) codes indexed by word id
+  *     order k: k int word ids, prob code, backoff code (no backoff for the highest order)
+  */
+public class BinaryLanguageModel extends BackoffTableLanguageModel {
+
+  public static final int MAGIC = 0x484c4d32; // "HLM2"
+  // largest region mapped at once; tables bigger than this are split on record boundaries
+  static final long CHUNK_SIZE = 1L << 30;
+
+  protected int bits;      // codebook size is 2^bits
+  protected int codeBytes; // 1 or 2
+  protected float[] probCodebook;
+  protected float[] backoffCodebook;
+  protected long[] counts; // n-grams per order, counts[0] == vocabulary size
+
+  protected MappedByteBuffer vocabulary; // offsets followed by the word blob
+  protected int vocabSize;
+  protected Table[] tables;
+
+  /** Maps a model written by write(). */
+  public BinaryLanguageModel(String fileName) throws IOException {
+    RandomAccessFile file = new RandomAccessFile(fileName, "r");
+    try {
+      FileChannel channel = file.getChannel();
+      MappedByteBuffer prefix = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(channel.size(), 12));
+      int magic = prefix.limit() < 12 ? 0 : prefix.getInt();
+      if(magic != MAGIC) {
+        throw new IOException("Not a binary language model: " + fileName);
+      }
+      order = prefix.getInt();
+      bits = prefix.getInt();
+      if(bits != 8 && bits != 16) {
+        throw new IOException("Unsupported codebook size 2^" + bits + " in " + fileName);
+      }
+      codeBytes = bits / 8;
+      MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, headerSize(order, bits));
+      header.position(12);
+      vocabSize = header.getInt();
+      unknownLogProb = header.getFloat();
+      defaultBackoff = header.getFloat();
+      probCodebook = new float[1 << bits];
+      backoffCodebook = new float[1 << bits];
+      for(int i = 0; i < probCodebook.length; i++) {
+        probCodebook[i] = header.getFloat();
+      }
+      for(int i = 0; i < backoffCodebook.length; i++) {
+        backoffCodebook[i] = header.getFloat();
+      }
+      counts = new long[order];
+      for(int i = 0; i < order; i++) {
+        counts[i] = header.getLong();
+      }
+      long position = header.position();
+
+      // vocabulary: offsets, then blob
+      MappedByteBuffer offsets = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (vocabSize + 1));
+      int blobSize = offsets.getInt(4 * vocabSize);
+      vocabulary = channel.map(FileChannel.MapMode.READ_ONLY, position, 4L * (vocabSize + 1) + blobSize);
+      position = align(position + 4L * (vocabSize + 1) + blobSize);
+
+      tables = new Table[order];
+      for(int k = 1; k <= order; k++) {
+        int recordSize = recordSize(k, order, codeBytes);
+        tables[k - 1] = new Table(channel, position, counts[k - 1], recordSize, k, codeBytes);
+        position = align(position + counts[k - 1] * recordSize);
+      }
+    } finally {
+      file.close(); // mappings stay valid after the channel is closed
+    }
+  }
+
+  static long headerSize(int order, int bits) {
+    return 6 * 4 + 2 * 4 * (1 << bits) + 8 * order;
+  }
+
+  static int recordSize(int k, int order, int codeBytes) {
+    if(k == 1) {
+      return 2 * codeBytes;
+    }
+    return 4 * k + (k < order ? 2 : 1) * codeBytes;
+  }
+
+  static long align(long position) {
+    return (position + 7) & ~7L;
+  }
+
+  /** One n-gram table, split over several mappings when larger than CHUNK_SIZE. */
+  protected static class Table {
+    final MappedByteBuffer[] chunks;
+    final long size;
+    final int recordSize;
+    final int recordsPerChunk;
+    final int ngramOrder;
+    final int codeBytes;
+
+    Table(FileChannel channel, long position, long size, int recordSize, int ngramOrder, int codeBytes) throws IOException {
+      this.size = size;
+      this.recordSize = recordSize;
+      this.ngramOrder = ngramOrder;
+      this.codeBytes = codeBytes;
+      this.recordsPerChunk = (int)(CHUNK_SIZE / recordSize);
+      int numChunks = (int)((size + recordsPerChunk - 1) / recordsPerChunk);
+      chunks = new MappedByteBuffer[numChunks];
+      for(int c = 0; c < numChunks; c++) {
+        long first = (long) c * recordsPerChunk;
+        long records = Math.min(recordsPerChunk, size - first);
+        chunks[c] = channel.map(FileChannel.MapMode.READ_ONLY, position + first * recordSize, records * recordSize);
+      }
+    }
+
+    MappedByteBuffer chunk(long record) {
+      return chunks[(int)(record / recordsPerChunk)];
+    }
+
+    int offset(long record) {
+      return (int)(record % recordsPerChunk) * recordSize;
+    }
+
+    // compares the ids of the given record against ids[from, from + ngramOrder)
+    int compare(long record, int[] ids, int from) {
+      MappedByteBuffer buffer = chunk(record);
+      int offset = offset(record);
+      for(int i = 0; i < ngramOrder; i++) {
+        int id = buffer.getInt(offset + 4 * i);
+        if(id != ids[from + i]) {
+          return id < ids[from + i] ? -1 : 1;
+        }
+      }
+      return 0;
+    }
+
+    // index of the record holding ids[from, from + ngramOrder), -1 if missing
+    long find(int[] ids, int from) {
+      long lo = 0;
+      long hi = size - 1;
+      while(lo <= hi) {
+        long mid = (lo + hi) >>> 1;
+        int cmp = compare(mid, ids, from);
+        if(cmp < 0) {
+          lo = mid + 1;
+        } else if(cmp > 0) {
+          hi = mid - 1;
+        } else {
+          return mid;
+        }
+      }
+      return -1;
+    }
+
+    int prob(long record) {
+      return code(record, 0);
+    }
+
+    int backoff(long record) {
+      return code(record, 1);
+    }
+
+    // code number i (0 prob, 1 backoff) of the record
+    private int code(long record, int i) {
+      MappedByteBuffer buffer = chunk(record);
+      int offset = offset(record) + 4 * (ngramOrder > 1 ? ngramOrder : 0) + i * codeBytes;
+      return codeBytes == 1 ? buffer.get(offset) & 0xff : buffer.getChar(offset);
+    }
+  }
+
+  /** Returns the id of word, -1 if it is not in the vocabulary. */
+  public int wordId(String word) {
+    byte[] bytes = utf8(word);
+    int lo = 0;
+    int hi = vocabSize - 1;
+    int blob = 4 * (vocabSize + 1);
+    while(lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      int start = vocabulary.getInt(4 * mid);
+      int end = vocabulary.getInt(4 * (mid + 1));
+      int cmp = 0;
+      int length = end - start;
+      int n = Math.min(length, bytes.length);
+      for(int i = 0; i < n && cmp == 0; i++) {
+        cmp = (vocabulary.get(blob + start + i) & 0xff) - (bytes[i] & 0xff);
+      }
+      if(cmp == 0) {
+        cmp = length - bytes.length;
+      }
+      if(cmp < 0) {
+        lo = mid + 1;
+      } else if(cmp > 0) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  // record index of the k-gram starting at ids[from], -1 if missing
+  protected long lookup(int[] ids, int from, int k) {
+    if(k == 1) {
+      return ids[from];
+    }
+    return tables[k - 1].find(ids, from);
+  }
+
+  protected double prob(int k, long record) {
+    return probCodebook[tables[k - 1].prob(record)];
+  }
+
+  protected double backoff(int k, long record) {
+    return backoffCodebook[tables[k - 1].backoff(record)];
+  }
+
+  static byte[] utf8(String word) {
+    try {
+      return word.getBytes("UTF-8");
+    } catch(UnsupportedEncodingException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  // unsigned lexicographic order on UTF-8 bytes, the order wordId() searches in
+  static final Comparator<byte[]> BYTE_ORDER = new Comparator<byte[]>() {
+    public int compare(byte[] a, byte[] b) {
+      int n = Math.min(a.length, b.length);
+      for(int i = 0; i < n; i++) {
+        int cmp = (a[i] & 0xff) - (b[i] & 0xff);
+        if(cmp != 0) {
+          return cmp;
+        }
+      }
+      return a.length - b.length;
+    }
+  };
+
+  /** Writes lm in the binary format read by the constructor, with 8 bit codebooks. */
+  public static void write(BackoffLanguageModel lm, String fileName) throws IOException {
+    write(lm, fileName, 8);
+  }
+
+  /** Writes lm in the binary format read by the constructor, with codebooks of
+    * 2^bits entries; bits is 8 or 16.
+    */
+  public static void write(BackoffLanguageModel lm, String fileName, int bits) throws IOException {
+    if(bits != 8 && bits != 16) {
+      throw new IllegalArgumentException("Codebook bits must be 8 or 16: " + bits);
+    }
+    int codeBytes = bits / 8;
+    int order = lm.getOrder();
+    List<Map<List<String>, double[]>> ngrams = new ArrayList<Map<List<String>, double[]>>();
+    for(int k = 1; k <= order; k++) {
+      ngrams.add(lm.getNgrams(k));
+    }
+
+    // vocabulary, sorted by bytes: the rank of a word is its id
+    Map<List<String>, double[]> unigrams = ngrams.get(0);
+    byte[][] words = new byte[unigrams.size()][];
+    int n = 0;
+    for(List<String> unigram : unigrams.keySet()) {
+      words[n++] = utf8(unigram.get(0));
+    }
+    Arrays.sort(words, BYTE_ORDER);
+    Map<String, Integer> ids = new HashMap<String, Integer>();
+    for(int i = 0; i < words.length; i++) {
+      ids.put(new String(words[i], "UTF-8"), i);
+    }
+
+    // codebooks over all values of all orders
+    List<Double> probs = new ArrayList<Double>();
+    List<Double> backoffs = new ArrayList<Double>();
+    for(int k = 1; k <= order; k++) {
+      for(double[] values : ngrams.get(k - 1).values()) {
+        probs.add(values[0]);
+        if(k < order) {
+          backoffs.add(values[1]);
+        }
+      }
+    }
+    Quantizer probQuantizer = new Quantizer(toArray(probs), bits);
+    Quantizer backoffQuantizer = new Quantizer(toArray(backoffs), bits);
+
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16));
+    try {
+      long position = 0;
+      out.writeInt(MAGIC);
+      out.writeInt(order);
+      out.writeInt(bits);
+      out.writeInt(words.length);
+      out.writeFloat((float) lm.getUnknownLogProb());
+      out.writeFloat((float) lm.getDefaultBackoff());
+      writeCodebook(out, probQuantizer, bits);
+      writeCodebook(out, backoffQuantizer, bits);
+      for(int k = 1; k <= order; k++) {
+        out.writeLong(ngrams.get(k - 1).size());
+      }
+      position += headerSize(order, bits);
+
+      int offset = 0;
+      for(byte[] word : words) {
+        out.writeInt(offset);
+        offset += word.length;
+      }
+      out.writeInt(offset);
+      for(byte[] word : words) {
+        out.write(word);
+      }
+      position = pad(out, position + 4L * (words.length + 1) + offset);
+
+      // unigrams, indexed by id
+      for(byte[] word : words) {
+        double[] values = unigrams.get(Arrays.asList(new String(word, "UTF-8")));
+        writeCode(out, probQuantizer.encode(values[0]), codeBytes);
+        writeCode(out, order > 1 ? backoffQuantizer.encode(values[1]) : 0, codeBytes);
+      }
+      position = pad(out, position + 2L * codeBytes * words.length);
+
+      // higher orders, sorted by ids
+      for(int k = 2; k <= order; k++) {
+        List<int[]> keys = new ArrayList<int[]>();
+        List<double[]> values = new ArrayList<double[]>();
+        for(Map.Entry<List<String>, double[]> entry : ngrams.get(k - 1).entrySet()) {
+          int[] key = new int[k];
+          for(int i = 0; i < k; i++) {
+            key[i] = ids.get(entry.getKey().get(i));
+          }
+          keys.add(key);
+          values.add(entry.getValue());
+        }
+        Integer[] sorted = sortedIndexes(keys);
+        for(Integer i : sorted) {
+          for(int id : keys.get(i)) {
+            out.writeInt(id);
+          }
+          writeCode(out, probQuantizer.encode(values.get(i)[0]), codeBytes);
+          if(k < order) {
+            writeCode(out, backoffQuantizer.encode(values.get(i)[1]), codeBytes);
+          }
+        }
+        position = pad(out, position + (long) keys.size() * recordSize(k, order, codeBytes));
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  private static void writeCodebook(DataOutputStream out, Quantizer quantizer, int bits) throws IOException {
+    float[] centers = quantizer.getCenters();
+    for(int i = 0; i < 1 << bits; i++) {
+      out.writeFloat(i < centers.length ? centers[i] : 0.0f);
+    }
+  }
+
+  private static void writeCode(DataOutputStream out, int code, int codeBytes) throws IOException {
+    if(codeBytes == 1) {
+      out.writeByte(code);
+    } else {
+      out.writeChar(code);
+    }
+  }
+
+  private static long pad(DataOutputStream out, long position) throws IOException {
+    long aligned = align(position);
+    for(long i = position; i < aligned; i++) {
+      out.writeByte(0);
+    }
+    return aligned;
+  }
+
+  private static double[] toArray(List<Double> values) {
+    double[] result = new double[values.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  private static Integer[] sortedIndexes(final List<int[]> keys) {
+    Integer[] indexes = new Integer[keys.size()];
+    for(int i = 0; i < indexes.length; i++) {
+      indexes[i] = i;
+    }
+    Arrays.sort(indexes, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        int[] x = keys.get(a);
+        int[] y = keys.get(b);
+        for(int i = 0; i < x.length; i++) {
+          if(x[i] != y[i]) {
+            return x[i] < y[i] ? -1 : 1;
+          }
+        }
+        return 0;
+      }
+    });
+    return indexes;
+  }
+}
@@ -0,0 +1,188 @@
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Bounded, thread-safe cache of the edit model's candidates for a word.
+  *
+  * Misspellings and frequent words recur across sentences, and editProbabilities()
+  * regenerates and renormalizes every edit of a word each time it is asked. The cache keeps
+  * the result as flat arrays (candidate ids and log edit probabilities) for the most
+  * recently used words. It is split into independently locked segments, each evicting its
+  * least recently used word, so that threads correcting different words rarely contend.
+  * A word missing from the cache is computed outside the lock; two threads missing the same
+  * word at once both compute it, which is harmless since the result is the same.
+  */
+public class CandidateCache {
+
+  /** The candidates for one word, in the iteration order of editProbabilities(). */
+  public static class Candidates {
+    public final String[] words;
+    public final int[] ids;          // id in the edit model's vocabulary, -1 if not in it
+    public final double[] logProbs;  // log p(word | candidate)
+    public final int self;           // index of the word itself
+
+    Candidates(String word, Map<String, Double> editProbs, PerfectHashVocabulary vocabulary) {
+      int n = editProbs.size();
+      words = new String[n];
+      ids = new int[n];
+      logProbs = new double[n];
+      int self = -1;
+      int j = 0;
+      for(Map.Entry<String, Double> entry : editProbs.entrySet()) {
+        words[j] = entry.getKey();
+        ids[j] = vocabulary.id(words[j]);
+        logProbs[j] = Math.log(entry.getValue());
+        if(words[j].equals(word)) {
+          self = j;
+        }
+        j++;
+      }
+      this.self = self;
+    }
+
+    public int size() {
+      return words.length;
+    }
+  }
+
+  private static final int SEGMENTS = 16;
+
+  protected EditModel editModel;
+  private final Segment[] segments;
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong partial = new AtomicLong();
+
+  // how missing candidates are computed, published as a whole by setBudget()
+  private volatile Budget budget = new Budget(null, 1.0, 0);
+
+  // with a generator, candidates come from it within mass and budgetNanos; without one,
+  // from editProbabilities()
+  private static class Budget {
+    final EditCandidateGenerator generator;
+    final double mass;
+    final long budgetNanos;
+
+    Budget(EditCandidateGenerator generator, double mass, long budgetNanos) {
+      this.generator = generator;
+      this.mass = mass;
+      this.budgetNanos = budgetNanos;
+    }
+  }
+
+  // a least recently used map; callers synchronize on the segment
+  private static class Segment extends LinkedHashMap<String, Candidates> {
+    private static final long serialVersionUID = 0;
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    protected boolean removeEldestEntry(Map.Entry<String, Candidates> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /** Caches the candidates of up to about capacity words. */
+  public CandidateCache(EditModel editModel, int capacity) {
+    this.editModel = editModel;
+    segments = new Segment[SEGMENTS];
+    for(int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(Math.max(1, capacity / SEGMENTS));
+    }
+  }
+
+  public CandidateCache(EditModel editModel) {
+    this(editModel, 1 << 16);
+  }
+
+  /** Returns the candidates for word, including word itself. */
+  public Candidates get(String word) {
+    int h = word.hashCode();
+    Segment segment = segments[(h ^ (h >>> 16)) & (SEGMENTS - 1)];
+    Candidates candidates;
+    synchronized(segment) {
+      candidates = segment.get(word);
+    }
+    if(candidates != null) {
+      hits.incrementAndGet();
+      return candidates;
+    }
+    misses.incrementAndGet();
+    Budget budget = this.budget;
+    if(budget.generator == null) {
+      candidates = new Candidates(word, editModel.editProbabilities(word), editModel.hashedVocabulary);
+    } else {
+      Map<String, Double> editProbs = new HashMap<String, Double>();
+      long deadline = budget.budgetNanos > 0 ? System.nanoTime() + budget.budgetNanos : Long.MAX_VALUE;
+      boolean complete = budget.generator.editProbabilities(word, budget.mass, deadline, editProbs);
+      candidates = new Candidates(word, editProbs, editModel.hashedVocabulary);
+      if(!complete) {
+        // cut short by the clock: use them this time, but try again next time
+        partial.incrementAndGet();
+        return candidates;
+      }
+    }
+    synchronized(segment) {
+      segment.put(word, candidates);
+    }
+    return candidates;
+  }
+
+  /** Generates candidates with generator from now on, trying the most likely edits that
+    * hold a fraction mass of the prior, for at most budgetNanos per word (&lt;= 0 for no
+    * limit). Candidates cut short by the time limit are not cached. Clears the cache.
+    */
+  public void setBudget(EditCandidateGenerator generator, double mass, long budgetNanos) {
+    budget = new Budget(generator, mass, budgetNanos);
+    clear();
+  }
+
+  public long hits() {
+    return hits.get();
+  }
+
+  public long misses() {
+    return misses.get();
+  }
+
+  /** Returns the number of lookups answered with candidates cut short by the time budget. */
+  public long partial() {
+    return partial.get();
+  }
+
+  public double hitRate() {
+    long lookups = hits.get() + misses.get();
+    return lookups == 0 ? 0.0 : (double) hits.get() / lookups;
+  }
+
+  /** Returns the number of cached words. */
+  public int size() {
+    int size = 0;
+    for(Segment segment : segments) {
+      synchronized(segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  public void clear() {
+    for(Segment segment : segments) {
+      synchronized(segment) {
+        segment.clear();
+      }
+    }
+    hits.set(0);
+    misses.set(0);
+    partial.set(0);
+  }
+
+  public String toString() {
+    return String.format("candidate cache: %d words, %d hits, %d misses, %d partial, hit rate %f",
+        size(), hits(), misses(), partial(), hitRate());
+  }
+}
@@ -0,0 +1,152 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** A read-only, columnar copy of a HolbrookCorpus.
+  *
+  * All tokens of all sentences are kept as word ids in one int array, sentence s covering
+  * the positions start(s) .. end(s) - 1 (the &lt;s&gt; and &lt;/s&gt; markers included).
+  * A parallel array holds the id of the misspelling of each token, or -1. Words and
+  * misspellings have separate vocabularies, so word ids are dense over the correct words
+  * only, numbered in order of first appearance.
+  *
+  * Training loops scan the arrays sequentially instead of chasing Sentence and Datum objects,
+  * and each word string is stored once. Build it once with HolbrookCorpus.compact() and
+  * share it; nothing may modify it or its vocabularies afterwards.
+  */
+public class CompactCorpus {
+
+  protected Vocabulary vocabulary;       // correct words
+  protected Vocabulary errorVocabulary;  // misspellings
+  protected int[] words;                 // word id of every token
+  protected int[] errors;                // misspelling id of every token, -1 if none
+  protected int[] offsets;               // sentence s is words[offsets[s] .. offsets[s + 1])
+
+  public CompactCorpus(HolbrookCorpus corpus) {
+    vocabulary = new Vocabulary();
+    errorVocabulary = new Vocabulary();
+    List<Sentence> data = corpus.getData();
+    int tokens = 0;
+    for(Sentence sentence : data) {
+      tokens += sentence.size();
+    }
+    words = new int[tokens];
+    errors = new int[tokens];
+    offsets = new int[data.size() + 1];
+    int i = 0;
+    for(int s = 0; s < data.size(); s++) {
+      offsets[s] = i;
+      for(Datum datum : data.get(s)) {
+        words[i] = vocabulary.add(datum.getWord());
+        errors[i] = datum.hasError() ? errorVocabulary.add(datum.getError()) : -1;
+        i++;
+      }
+    }
+    offsets[data.size()] = i;
+  }
+
+  CompactCorpus(Vocabulary vocabulary, Vocabulary errorVocabulary,
+                int[] words, int[] errors, int[] offsets) {
+    this.vocabulary = vocabulary;
+    this.errorVocabulary = errorVocabulary;
+    this.words = words;
+    this.errors = errors;
+    this.offsets = offsets;
+  }
+
+  /** Returns a corpus of n sentences drawn at random from corpus, sharing its
+    * vocabularies; for benchmarks on corpora larger than the Holbrook data.
+    */
+  public static CompactCorpus resample(CompactCorpus corpus, int n, Random random) {
+    int[] picked = new int[n];
+    long tokens = 0;
+    for(int s = 0; s < n; s++) {
+      picked[s] = random.nextInt(corpus.sentences());
+      tokens += corpus.end(picked[s]) - corpus.start(picked[s]);
+    }
+    if(tokens > Integer.MAX_VALUE) {
+      throw new IllegalArgumentException("Too many tokens: " + tokens);
+    }
+    int[] words = new int[(int) tokens];
+    int[] errors = new int[(int) tokens];
+    int[] offsets = new int[n + 1];
+    int i = 0;
+    for(int s = 0; s < n; s++) {
+      int start = corpus.start(picked[s]);
+      int length = corpus.end(picked[s]) - start;
+      offsets[s] = i;
+      System.arraycopy(corpus.words, start, words, i, length);
+      System.arraycopy(corpus.errors, start, errors, i, length);
+      i += length;
+    }
+    offsets[n] = i;
+    return new CompactCorpus(corpus.vocabulary, corpus.errorVocabulary, words, errors, offsets);
+  }
+
+  /** Returns the number of sentences. */
+  public int sentences() {
+    return offsets.length - 1;
+  }
+
+  /** Returns the number of tokens in all sentences. */
+  public int tokens() {
+    return words.length;
+  }
+
+  /** Returns the position of the first token of sentence s. */
+  public int start(int s) {
+    return offsets[s];
+  }
+
+  /** Returns the position after the last token of sentence s. */
+  public int end(int s) {
+    return offsets[s + 1];
+  }
+
+  /** Returns the word id of the token at position i. */
+  public int word(int i) {
+    return words[i];
+  }
+
+  /** Returns the misspelling id of the token at position i, -1 if it is spelled correctly. */
+  public int error(int i) {
+    return errors[i];
+  }
+
+  /** The word ids of all tokens, for sequential scans. Do not modify. */
+  public int[] wordIds() {
+    return words;
+  }
+
+  public Vocabulary vocabulary() {
+    return vocabulary;
+  }
+
+  public Vocabulary errorVocabulary() {
+    return errorVocabulary;
+  }
+
+  /** Returns the word ids of sentence s as a new array. */
+  public int[] sentence(int s) {
+    return Arrays.copyOfRange(words, offsets[s], offsets[s + 1]);
+  }
+
+  /** Prints the size of the training corpus in both forms. */
+  public static void main(String[] args) {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long before = runtime.totalMemory() - runtime.freeMemory();
+    HolbrookCorpus corpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    System.gc();
+    long objects = runtime.totalMemory() - runtime.freeMemory() - before;
+    long start = System.nanoTime();
+    CompactCorpus compact = corpus.compact();
+    long build = System.nanoTime() - start;
+    System.gc();
+    long columns = runtime.totalMemory() - runtime.freeMemory() - before - objects;
+    System.out.println(String.format("%d sentences, %d tokens, %d words, %d misspellings",
+        compact.sentences(), compact.tokens(), compact.vocabulary().size(), compact.errorVocabulary().size()));
+    System.out.println(String.format("HolbrookCorpus about %d KB, CompactCorpus about %d KB (built in %d ms)",
+        objects / 1024, columns / 1024, build / 1000000));
+  }
+}
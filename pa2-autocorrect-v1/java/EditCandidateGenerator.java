@@ -0,0 +1,454 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicLong;
+
+/** Generates the single edits of a word in order of their prior count in count_1edit.txt,
+  * and stops early once enough of that prior mass, or a time budget, has been explored.
+  *
+  * EditModel.editProbabilities() tries all 26 letters at every position, although most of
+  * those edits never occur in the confusion data and only add a zero count. Here the edit
+  * counts are indexed by the characters they apply to, so the edits of a word with a count
+  * are listed directly, sorted by count, and looked up in the vocabulary most likely first.
+  * Given a mass m &lt; 1, generation stops once the edits tried hold a fraction m of the
+  * prior counts of all the word's edits; given a deadline, it stops when the deadline
+  * passes. Either way the most likely candidates are the ones found, so a busy or slow
+  * machine gets fewer, not worse, candidates. The deadline bounds the vocabulary lookups,
+  * which are most of the time spent on a long or garbled word; listing the edits before
+  * them and normalizing the few candidates after them are not checked, and neither can
+  * be a thread that is descheduled.
+  *
+  * With mass 1 and no deadline every edit is tried, so they are tried in list order,
+  * without the heap.
+  *
+  * With mass 1 and no deadline the probabilities equal those of editProbabilities(),
+  * except that candidates reached only by zero-count edits, which get probability 0 there,
+  * are left out. Thread-safe.
+  */
+public class EditCandidateGenerator {
+
+  // kinds of edit, as in editProbabilities()
+  private static final int DELETION = 0;
+  private static final int TRANSPOSITION = 1;
+  private static final int SUBSTITUTION = 2;
+  private static final int INSERTION = 3;
+
+  private static final int CLOCK_INTERVAL = 8; // edits tried between reads of the clock
+
+  /** The edits of one kind that apply at a given character or pair of characters, most
+    * frequent first. Deletions and transpositions are lists of one edit, with no character.
+    */
+  private static class Rules {
+    char[] chars = new char[4];
+    int[] counts = new int[4];
+    int size;
+    long total;
+
+    void add(char c, int count) {
+      if(size == chars.length) {
+        chars = Arrays.copyOf(chars, 2 * size);
+        counts = Arrays.copyOf(counts, 2 * size);
+      }
+      chars[size] = c;
+      counts[size] = count;
+      total += count;
+      size++;
+    }
+
+    void sort() {
+      long[] packed = new long[size];
+      for(int r = 0; r < size; r++) {
+        packed[r] = ((long) counts[r] << 16) | chars[r];
+      }
+      Arrays.sort(packed);
+      for(int r = 0; r < size; r++) {
+        long p = packed[size - 1 - r];
+        counts[r] = (int) (p >>> 16);
+        chars[r] = (char) (p & 0xffff);
+      }
+    }
+  }
+
+  /** Per thread state: the edit lists that apply to the current word, merged by a heap. */
+  private static class Scratch {
+    PerfectHashVocabulary.Probe probe;
+    Rules[] lists = new Rules[64];
+    int[] kinds = new int[64];
+    int[] positions = new int[64];
+    int[] next = new int[64];    // next edit of each list
+    long[] heap = new long[64];  // count of that edit << 32 | list, largest on top
+    int size;                    // lists
+    int heapSize;
+    long total;                  // prior count of all edits
+
+    void add(Rules rules, int kind, int position) {
+      if(rules == null) {
+        return;
+      }
+      if(size == lists.length) {
+        lists = Arrays.copyOf(lists, 2 * size);
+        kinds = Arrays.copyOf(kinds, 2 * size);
+        positions = Arrays.copyOf(positions, 2 * size);
+        next = Arrays.copyOf(next, 2 * size);
+        heap = Arrays.copyOf(heap, 2 * size);
+      }
+      lists[size] = rules;
+      kinds[size] = kind;
+      positions[size] = position;
+      next[size] = 0;
+      total += rules.total;
+      // sift up
+      long entry = ((long) rules.counts[0] << 32) | size;
+      int h = heapSize++;
+      while(h > 0 && heap[(h - 1) >> 1] < entry) {
+        heap[h] = heap[(h - 1) >> 1];
+        h = (h - 1) >> 1;
+      }
+      heap[h] = entry;
+      size++;
+    }
+
+    // replaces the top of the heap with entry, or removes it if entry &lt; 0
+    void replaceTop(long entry) {
+      if(entry < 0) {
+        entry = heap[--heapSize];
+      }
+      int h = 0;
+      while(true) {
+        int child = 2 * h + 1;
+        if(child >= heapSize) {
+          break;
+        }
+        if(child + 1 < heapSize && heap[child + 1] > heap[child]) {
+          child++;
+        }
+        if(heap[child] <= entry) {
+          break;
+        }
+        heap[h] = heap[child];
+        h = child;
+      }
+      if(heapSize > 0) {
+        heap[h] = entry;
+      }
+    }
+  }
+
+  protected EditModel editModel;
+  // the characters of the edit counts, as codes 1 ..; 0 stands for the start of the word, as
+  // the "" tail does in editProbabilities()
+  private int[] codes;            // by character, -1 for none
+  private int width;              // number of codes, with 0
+  private Rules[] deletions;      // by pair(a, b): ab -> a
+  private Rules[] transpositions; // by pair(a, b): ab -> ba
+  private Rules[] substitutions;  // by a: a -> c
+  private Rules[] insertions;     // by a: a -> ac
+  private final ThreadLocal<Scratch> scratch = new ThreadLocal<Scratch>() {
+    protected Scratch initialValue() {
+      return new Scratch();
+    }
+  };
+  private final AtomicLong words = new AtomicLong();
+  private final AtomicLong expired = new AtomicLong();
+
+  public EditCandidateGenerator(EditModel editModel) {
+    this.editModel = editModel;
+    int maxChar = 0;
+    for(String key : editModel.editCounts.keySet()) {
+      for(int i = 0; i < key.length(); i++) {
+        maxChar = Math.max(maxChar, key.charAt(i));
+      }
+    }
+    codes = new int[maxChar + 1];
+    Arrays.fill(codes, -1);
+    width = 1;
+    for(String key : editModel.editCounts.keySet()) {
+      for(int i = 0; i < key.length(); i++) {
+        if(codes[key.charAt(i)] < 0) {
+          codes[key.charAt(i)] = width++;
+        }
+      }
+    }
+    deletions = new Rules[width * width];
+    transpositions = new Rules[width * width];
+    substitutions = new Rules[width];
+    insertions = new Rules[width];
+
+    boolean[] letters = new boolean[maxChar + 1];
+    for(char c : editModel.alphabet) {
+      if(c <= maxChar) {
+        letters[c] = true;
+      }
+    }
+    for(Map.Entry<String, Integer> entry : editModel.editCounts.entrySet()) {
+      int bar = entry.getKey().indexOf('|');
+      String typed = entry.getKey().substring(0, bar);
+      String correct = entry.getKey().substring(bar + 1);
+      int count = entry.getValue();
+      if(count <= 0) {
+        continue;
+      }
+      if(typed.length() == 1 && correct.length() == 0) {
+        rules(deletions, pair(0, code(typed.charAt(0)))).add((char) 0, count);
+      } else if(typed.length() == 2 && correct.length() == 1 && correct.charAt(0) == typed.charAt(0)) {
+        rules(deletions, pair(code(typed.charAt(0)), code(typed.charAt(1)))).add((char) 0, count);
+      } else if(typed.length() == 2 && correct.length() == 2
+          && typed.charAt(0) == correct.charAt(1) && typed.charAt(1) == correct.charAt(0)
+          && typed.charAt(0) != typed.charAt(1)) {
+        rules(transpositions, pair(code(typed.charAt(0)), code(typed.charAt(1)))).add((char) 0, count);
+      } else if(typed.length() == 1 && correct.length() == 1
+          && letters[correct.charAt(0)] && typed.charAt(0) != correct.charAt(0)) {
+        rules(substitutions, code(typed.charAt(0))).add(correct.charAt(0), count);
+      } else if(typed.length() == 0 && correct.length() == 1 && letters[correct.charAt(0)]) {
+        rules(insertions, 0).add(correct.charAt(0), count);
+      } else if(typed.length() == 1 && correct.length() == 2
+          && correct.charAt(0) == typed.charAt(0) && letters[correct.charAt(1)]) {
+        rules(insertions, code(typed.charAt(0))).add(correct.charAt(1), count);
+      }
+      // anything else is never looked up by editProbabilities()
+    }
+    for(Rules rules : substitutions) {
+      if(rules != null) {
+        rules.sort();
+      }
+    }
+    for(Rules rules : insertions) {
+      if(rules != null) {
+        rules.sort();
+      }
+    }
+  }
+
+  private int code(char c) {
+    return c < codes.length ? codes[c] : -1;
+  }
+
+  private int pair(int a, int b) {
+    return a * width + b;
+  }
+
+  private static Rules rules(Rules[] table, int i) {
+    if(table[i] == null) {
+      table[i] = new Rules();
+    }
+    return table[i];
+  }
+
+  /** Computes p(x | word) as editProbabilities() does, from the most likely edits of word
+    * that hold a fraction mass of their prior counts, and that can be tried before
+    * System.nanoTime() passes deadline (Long.MAX_VALUE for none). The word itself always
+    * gets p = .9. Adds the probabilities to result and returns false if the deadline cut
+    * generation short.
+    */
+  public boolean editProbabilities(String word, double mass, long deadline, Map<String, Double> result) {
+    words.incrementAndGet();
+    PerfectHashVocabulary vocabulary = editModel.hashedVocabulary;
+    Scratch s = scratch.get();
+    if(s.probe == null || s.probe.vocabulary() != vocabulary) {
+      s.probe = vocabulary.probe(word);
+    } else {
+      s.probe.reset(word);
+    }
+
+    // the lists of edits with a count at each position
+    s.size = 0;
+    s.heapSize = 0;
+    s.total = 0;
+    int n = word.length();
+    int current = n > 0 ? code(word.charAt(0)) : -1;
+    for(int i = 0; i <= n; i++) {
+      int before = i > 0 ? code(word.charAt(i - 1)) : 0;
+      if(i < n) {
+        int after = i < n - 1 ? code(word.charAt(i + 1)) : -1;
+        if(current >= 0) {
+          if(before >= 0) {
+            s.add(deletions[pair(before, current)], DELETION, i);
+          }
+          if(after >= 0) {
+            s.add(transpositions[pair(current, after)], TRANSPOSITION, i);
+          }
+          s.add(substitutions[current], SUBSTITUTION, i);
+        }
+        current = after;
+      }
+      if(before >= 0) {
+        s.add(insertions[before], INSERTION, i);
+      }
+    }
+
+    Map<String, Integer> counts = new HashMap<String, Integer>();
+    boolean complete = true;
+    if(mass >= 1.0 && deadline == Long.MAX_VALUE) {
+      // every edit will be tried, so the order does not matter
+      for(int list = 0; list < s.size; list++) {
+        for(int r = 0; r < s.lists[list].size; r++) {
+          tryEdit(s, list, r, counts);
+        }
+      }
+    } else {
+      // try them most likely first
+      double target = mass * s.total;
+      long explored = 0;
+      for(int tried = 0; s.heapSize > 0 && explored < target; tried++) {
+        if(deadline != Long.MAX_VALUE && tried % CLOCK_INTERVAL == 0 && System.nanoTime() - deadline > 0) {
+          complete = false;
+          expired.incrementAndGet();
+          break;
+        }
+        int list = (int) s.heap[0];
+        Rules rules = s.lists[list];
+        int r = s.next[list]++;
+        s.replaceTop(r + 1 < rules.size ? ((long) rules.counts[r + 1] << 32) | list : -1);
+        tryEdit(s, list, r, counts);
+        explored += rules.counts[r];
+      }
+    }
+
+    // normalize, as editProbabilities() does
+    double total = 0.0;
+    for(int count : counts.values()) {
+      total += count;
+    }
+    int selfCount = (int) (9 * total); // p(x|x) = .9
+    if(selfCount == 0) {
+      selfCount = 1;
+    }
+    counts.put(word, selfCount);
+    total += selfCount;
+    for(Map.Entry<String, Integer> entry : counts.entrySet()) {
+      result.put(entry.getKey(), entry.getValue() / total);
+    }
+    return complete;
+  }
+
+  // looks up edit r of list in the vocabulary and adds its count to its candidate, if any
+  private void tryEdit(Scratch s, int list, int r, Map<String, Integer> counts) {
+    Rules rules = s.lists[list];
+    int position = s.positions[list];
+    int id;
+    switch(s.kinds[list]) {
+      case DELETION: id = s.probe.deletion(position); break;
+      case TRANSPOSITION: id = s.probe.transposition(position); break;
+      case SUBSTITUTION: id = s.probe.substitution(position, rules.chars[r]); break;
+      default: id = s.probe.insertion(position, rules.chars[r]); break;
+    }
+    if(id >= 0) {
+      String candidate = s.probe.vocabulary().word(id);
+      Integer prevCount = counts.get(candidate);
+      counts.put(candidate, prevCount == null ? rules.counts[r] : rules.counts[r] + prevCount);
+    }
+  }
+
+  /** As above, into a new map; budgetNanos &lt;= 0 means no time limit. */
+  public Map<String, Double> editProbabilities(String word, double mass, long budgetNanos) {
+    Map<String, Double> result = new HashMap<String, Double>();
+    editProbabilities(word, mass, budgetNanos > 0 ? System.nanoTime() + budgetNanos : Long.MAX_VALUE, result);
+    return result;
+  }
+
+  /** Returns the number of words generated for. */
+  public long words() {
+    return words.get();
+  }
+
+  /** Returns the number of words whose generation the deadline cut short. */
+  public long expired() {
+    return expired.get();
+  }
+
+  /** Checks that a full generation matches editProbabilities(), then compares latency and
+    * accuracy on the dev set for several budgets. Latency is measured per word, uncached,
+    * on the dev misspellings and on long garbled words.
+    */
+  public static void main(String[] args) {
+    HolbrookCorpus train = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus dev = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+    EditModel editModel = new EditModel("../data/count_1edit.txt", train);
+    EditCandidateGenerator generator = new EditCandidateGenerator(editModel);
+
+    List<String> queries = new ArrayList<String>();
+    for(Sentence sentence : dev.getData()) {
+      for(Datum datum : sentence) {
+        if(datum.hasError()) {
+          queries.add(datum.getError());
+        }
+      }
+    }
+    int misspellings = queries.size();
+    Random random = new Random(42);
+    List<String> words = train.compact().vocabulary().words();
+    for(int i = 0; i < misspellings; i++) {
+      // several words run together and misspelled, as garbled input would be
+      StringBuilder garbled = new StringBuilder();
+      while(garbled.length() < 20 + random.nextInt(30)) {
+        garbled.append(words.get(random.nextInt(words.size())));
+      }
+      queries.add(SpellingBenchmark.misspell(garbled.toString(), random));
+    }
+
+    boolean pass = true;
+    for(String query : queries) {
+      Map<String, Double> expected = new HashMap<String, Double>();
+      for(Map.Entry<String, Double> entry : editModel.editProbabilities(query).entrySet()) {
+        if(entry.getValue() > 0) {
+          expected.put(entry.getKey(), entry.getValue());
+        }
+      }
+      Map<String, Double> actual = generator.editProbabilities(query, 1.0, 0);
+      pass &= expected.keySet().equals(actual.keySet());
+      for(String candidate : expected.keySet()) {
+        pass &= Math.abs(expected.get(candidate) - actual.get(candidate)) < 1e-12;
+      }
+    }
+    System.out.println(String.format("%d misspellings, %d garbled words; mass 1 matches editProbabilities(): %s",
+        misspellings, queries.size() - misspellings, pass ? "PASS" : "*FAIL*"));
+
+    KneserNeyLanguageModel lm = new KneserNeyLanguageModel(train);
+    System.out.println(String.format("%-22s %8s %8s %8s %8s %8s %10s %8s",
+        "budget", "mean us", "p50 us", "p90 us", "p99 us", "max us", "candidates", "dev acc"));
+    report("editProbabilities()", editModel, null, 1.0, 0, queries, new SpellCorrect(lm, train), dev);
+    double[] masses = { 1.0, 0.99, 0.95, 0.9, 0.8 };
+    for(double mass : masses) {
+      SpellCorrect spell = new SpellCorrect(lm, train);
+      spell.setEditBudget(mass, 0);
+      report("mass " + mass, editModel, generator, mass, 0, queries, spell, dev);
+    }
+    long[] budgets = { 20000, 5000, 1000 };
+    for(long budget : budgets) {
+      SpellCorrect spell = new SpellCorrect(lm, train);
+      spell.setEditBudget(1.0, budget);
+      report(String.format("mass 1.0, %d us", budget / 1000), editModel, generator, 1.0, budget, queries, spell, dev);
+    }
+  }
+
+  private static void report(String name, EditModel editModel, EditCandidateGenerator generator,
+                             double mass, long budgetNanos, List<String> queries,
+                             SpellCorrect spell, HolbrookCorpus dev) {
+    long[] nanos = new long[queries.size()];
+    long candidates = 0;
+    for(int round = 0; round < 5; round++) { // the last round is measured
+      candidates = 0;
+      for(int q = 0; q < queries.size(); q++) {
+        long start = System.nanoTime();
+        Map<String, Double> probabilities = generator == null
+            ? editModel.editProbabilities(queries.get(q))
+            : generator.editProbabilities(queries.get(q), mass, budgetNanos);
+        nanos[q] = System.nanoTime() - start;
+        candidates += probabilities.size();
+      }
+    }
+    long sum = 0;
+    for(long t : nanos) {
+      sum += t;
+    }
+    Arrays.sort(nanos);
+    double accuracy = spell.evaluate(dev).getAccuracy();
+    System.out.println(String.format("%-22s %8.1f %8.1f %8.1f %8.1f %8.1f %10.1f %8.4f",
+        name, sum / 1e3 / nanos.length, nanos[nanos.length / 2] / 1e3,
+        nanos[(int) (nanos.length * 0.9)] / 1e3, nanos[(int) (nanos.length * 0.99)] / 1e3, nanos[nanos.length - 1] / 1e3,
+        (double) candidates / nanos.length, accuracy));
+  }
+}
@@ -84,10 +84,13 @@
  * <code>d(BA,BCA)=1</code>, but <code>d(AB,BCA)= 3 &gt;= d(AB,BA) +
  * d(BA,BCA) = 1 + 1 = 2</code>.
  * 
- * <P><i>Implementation Note:</i> This class implements edit distance
- * using dynamic programming in time <code>O(n*m)</code> where
+ * <P><i>Implementation Note:</i> Distances are computed with the
+ * bit-parallel algorithm of {@link MyersEditDistance}, in time
+ * <code>O(n)</code> when the shorter sequence has at most 64
+ * characters and <code>O(n*m/64)</code> otherwise.  The dynamic
+ * programming implementation below, in time <code>O(n*m)</code> where
  * <code>n</code> and <code>m</code> are the length of the sequences
- * being compared.  Using a sliding window of three lattice slices rather
+ * being compared, is kept as a reference.  Using a sliding window of three lattice slices rather
  * than allocating the entire lattice at once, the space required is
  * that for three arrays of integers as long as the shorter of the two
  * character sequences being compared.  For details, see section
@@ -194,6 +197,33 @@ public class EditDistance
             return cSeq1.length(); // one subst, other deletes
         }
 
+        return MyersEditDistance.distance(cSeq2,cSeq1,allowTransposition,
+                                          Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns the edit distance computed by the dynamic programming
+     * lattice rather than the bit-parallel algorithm used by
+     * {@link #editDistance(CharSequence,CharSequence,boolean)}.  Kept
+     * as the reference implementation the bit-parallel one is checked
+     * against.
+     *
+     * @param cSeq1 First character sequence.
+     * @param cSeq2 Second character sequence.
+     * @param allowTransposition Set to <code>true</code> to allow
+     * transposition edits.
+     * @return Edit distance between the character sequences.
+     */
+    static int dynamicEditDistance(CharSequence cSeq1,
+                                   CharSequence cSeq2,
+                                   boolean allowTransposition) {
+        if (cSeq1.length() < cSeq2.length()) {
+            CharSequence temp = cSeq1;
+            cSeq1 = cSeq2;
+            cSeq2 = temp;
+        }
+        if (cSeq2.length() < 2) 
+            return editDistance(cSeq1,cSeq2,allowTransposition);
         if (allowTransposition) 
             return editDistanceTranspose(cSeq1,cSeq2);
         return editDistanceNonTranspose(cSeq1,cSeq2);
@@ -4,9 +4,10 @@ import java.io.BufferedReader;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.HashSet;
 
 public class EditModel {
 
@@ -14,18 +15,31 @@ public class EditModel {
 
   public Set<String> vocabulary;
 
+  // the same words, for probing edits by hash. Built by setVocabulary(), so words added to
+  // vocabulary afterwards are not candidates.
+  public PerfectHashVocabulary hashedVocabulary;
+
+  public FuzzyIndex fuzzyIndex; // vocabulary, searchable by edit distance
+
+  // a probe per thread, for editProbabilities()
+  private final ThreadLocal<PerfectHashVocabulary.Probe> probes = new ThreadLocal<PerfectHashVocabulary.Probe>();
+
   public EditModel(String fileName, HolbrookCorpus corpus) {
     readEditCounts(fileName);
     setVocabulary(corpus);
   }
 
   public void setVocabulary(HolbrookCorpus corpus) {
-    vocabulary = new HashSet<String>();
-    for(Sentence sentence : corpus.getData()) {
-      for(Datum datum : sentence) {
-        vocabulary.add(datum.getWord());
-      }
-    }
+    List<String> words = corpus.compact().vocabulary().words();
+    vocabulary = new HashSet<String>(words);
+    hashedVocabulary = new PerfectHashVocabulary(words);
+    fuzzyIndex = new FuzzyIndex(words);
+    probes.remove();
+  }
+
+  /** Returns the vocabulary words within maxDistance edits of word, closest first. */
+  public List<FuzzyIndex.Match> similarWords(String word, int maxDistance) {
+    return fuzzyIndex.search(word, maxDistance);
   }
 
 
@@ -69,58 +83,57 @@ public class EditModel {
     */
   Map<String, Double> editProbabilities(String word) {
     HashMap<String, Integer> counts = new HashMap<String, Integer>();
-    for(int i = 0; i <= word.length(); i++) {
-      String a = word.substring(0, i);
-      String b = word.substring(i);
+    // edits are looked up by their rolling hash; strings are only built for the hits.
+    PerfectHashVocabulary.Probe probe = probes.get();
+    if(probe == null || probe.vocabulary() != hashedVocabulary) {
+      probe = hashedVocabulary.probe(word);
+      probes.set(probe);
+    } else {
+      probe.reset(word);
+    }
+    int n = word.length();
+    for(int i = 0; i <= n; i++) {
       // deletions. 
-      if(b.length() > 0) {
-        String deleted = a + b.substring(1);
-        if(vocabulary.contains(deleted)) {
-          String tail = a.length () > 0 ? a.substring(a.length() - 1, a.length()) : "";
-          String original = String.format("%s%s", tail, b.substring(0,1));
+      if(i < n) {
+        int id = probe.deletion(i);
+        if(id >= 0) {
+          String tail = i > 0 ? word.substring(i - 1, i) : "";
+          String original = tail + word.charAt(i);
           String replacement = tail;
-          int count = editCount(original, replacement);
-          int prevCount = counts.containsKey(deleted) ? counts.get(deleted) : 0;
-          counts.put(deleted, count + prevCount);
+          addCount(counts, hashedVocabulary.word(id), editCount(original, replacement));
         }
       }
 
       // transpositions
-      if(b.length() > 1) {
-        String transposed = String.format("%s%c%c%s", a, b.charAt(1), b.charAt(0), b.substring(2));
-        if(vocabulary.contains(transposed)) {
-          String original = String.format("%c%c", b.charAt(0), b.charAt(1));
-          String replacement = String.format("%c%c", b.charAt(1), b.charAt(0));
-          int count = editCount(original, replacement);
-          int prevCount = counts.containsKey(transposed) ? counts.get(transposed) : 0;
-          counts.put(transposed, count + prevCount);
+      if(i < n - 1) {
+        int id = probe.transposition(i);
+        if(id >= 0) {
+          String original = word.substring(i, i + 2);
+          String replacement = new String(new char[] { word.charAt(i + 1), word.charAt(i) });
+          addCount(counts, hashedVocabulary.word(id), editCount(original, replacement));
         }
       }
 
       // replaces
-      if(b.length() > 0) {
+      if(i < n) {
         for(char c : alphabet) {
-          String replaced = String.format("%s%c%s", a, c, b.substring(1));
-          if(vocabulary.contains(replaced)) {
-            String original = b.substring(0,1);
-            String replacement = String.format("%c",c);
-            int count = editCount(original, replacement);
-            int prevCount = counts.containsKey(replaced) ? counts.get(replaced) : 0;
-            counts.put(replaced, count + prevCount);
+          int id = probe.substitution(i, c);
+          if(id >= 0) {
+            String original = word.substring(i, i + 1);
+            String replacement = String.valueOf(c);
+            addCount(counts, hashedVocabulary.word(id), editCount(original, replacement));
           }
         }
       }
       
       // insertions
       for(char c : alphabet) {
-        String inserted = String.format("%s%c%s", a, c, b);
-        if(vocabulary.contains(inserted)) {
-          String tail = a.length() > 0 ? a.substring(a.length() - 1, a.length()) : ""; 
+        int id = probe.insertion(i, c);
+        if(id >= 0) {
+          String tail = i > 0 ? word.substring(i - 1, i) : ""; 
           String original = tail;
-          String replacement = String.format("%s%c", tail, c);
-          int count = editCount(original, replacement);
-          int prevCount = counts.containsKey(inserted) ? counts.get(inserted) : 0;
-          counts.put(inserted, count + prevCount);
+          String replacement = tail + c;
+          addCount(counts, hashedVocabulary.word(id), editCount(original, replacement));
         }
       }
     }
@@ -146,6 +159,11 @@ public class EditModel {
     return probabilities;
   }
 
+  private static void addCount(Map<String, Integer> counts, String word, int count) {
+    Integer prevCount = counts.get(word);
+    counts.put(word, prevCount == null ? count : count + prevCount);
+  }
+
   public static int dameraulevenshtein(String s1, String s2) {
     return EditDistance.editDistance(s1, s2, true);
   }
@@ -0,0 +1,262 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+/** Finds all words of a fixed vocabulary within a given Damerau-Levenshtein (optimal string
+  * alignment) distance of a query word.
+  *
+  * The vocabulary is stored as a trie in flat arrays, with the children of every node in
+  * one contiguous, sorted range. A query walks the trie depth first, carrying one row of
+  * the edit distance table per trie level (i.e. simulating the Levenshtein automaton of the
+  * query on the trie), and abandons a subtree as soon as every entry of its row exceeds the
+  * maximum distance. Shared prefixes are only scored once and, unlike generating all edits
+  * of the query, the work for distance 2 does not grow with the alphabet squared.
+  *
+  * The index is immutable and may be queried from several threads.
+  */
+public class FuzzyIndex {
+
+  /** A vocabulary word and its distance to the query. */
+  public static class Match {
+    public final String word;
+    public final int distance;
+
+    public Match(String word, int distance) {
+      this.word = word;
+      this.distance = distance;
+    }
+
+    public String toString() {
+      return word + ":" + distance;
+    }
+  }
+
+  protected String[] words;     // sorted vocabulary
+  protected char[] labels;      // character on the edge into each node
+  protected int[] firstChild;   // children of node j are firstChild[j] .. firstChild[j] + childCount[j] - 1
+  protected int[] childCount;
+  protected int[] terminal;     // index into words of the word ending at each node, -1 if none
+  protected int maxLength;
+
+  public FuzzyIndex(Collection<String> vocabulary) {
+    words = vocabulary.toArray(new String[vocabulary.size()]);
+    Arrays.sort(words);
+    build();
+  }
+
+  // breadth first over ranges of the sorted words sharing a prefix, so that siblings
+  // are numbered consecutively.
+  private void build() {
+    int capacity = 16;
+    int[] lo = new int[capacity];
+    int[] hi = new int[capacity];
+    int[] depth = new int[capacity];
+    labels = new char[capacity];
+    firstChild = new int[capacity];
+    childCount = new int[capacity];
+    terminal = new int[capacity];
+    lo[0] = 0;
+    hi[0] = words.length;
+    depth[0] = 0;
+    int size = 1;
+    for(int node = 0; node < size; node++) {
+      int d = depth[node];
+      int start = lo[node];
+      terminal[node] = -1;
+      if(start < hi[node] && words[start].length() == d) {
+        terminal[node] = start; // sorted: the word equal to the prefix comes first
+        maxLength = Math.max(maxLength, d);
+        start++;
+      }
+      firstChild[node] = size;
+      int i = start;
+      while(i < hi[node]) {
+        char c = words[i].charAt(d);
+        int j = i + 1;
+        while(j < hi[node] && words[j].charAt(d) == c) {
+          j++;
+        }
+        if(size == capacity) {
+          capacity *= 2;
+          lo = Arrays.copyOf(lo, capacity);
+          hi = Arrays.copyOf(hi, capacity);
+          depth = Arrays.copyOf(depth, capacity);
+          labels = Arrays.copyOf(labels, capacity);
+          firstChild = Arrays.copyOf(firstChild, capacity);
+          childCount = Arrays.copyOf(childCount, capacity);
+          terminal = Arrays.copyOf(terminal, capacity);
+        }
+        labels[size] = c;
+        lo[size] = i;
+        hi[size] = j;
+        depth[size] = d + 1;
+        size++;
+        i = j;
+      }
+      childCount[node] = size - firstChild[node];
+    }
+    labels = Arrays.copyOf(labels, size);
+    firstChild = Arrays.copyOf(firstChild, size);
+    childCount = Arrays.copyOf(childCount, size);
+    terminal = Arrays.copyOf(terminal, size);
+  }
+
+  public int size() {
+    return words.length;
+  }
+
+  /** Returns the position of word in the sorted vocabulary, or -1 if it is not in it. */
+  public int id(String word) {
+    int id = Arrays.binarySearch(words, word);
+    return id >= 0 ? id : -1;
+  }
+
+  /** Returns the word at position id of the sorted vocabulary. */
+  public String word(int id) {
+    return words[id];
+  }
+
+  /** Returns the number of trie nodes. */
+  public int nodes() {
+    return labels.length;
+  }
+
+  /** Returns every vocabulary word within maxDistance of query, closest first. */
+  public List<Match> search(String query, int maxDistance) {
+    int m = query.length();
+    // rows[d] is the edit distance row of the trie node at depth d on the current path
+    int[][] rows = new int[maxLength + 1][m + 1];
+    for(int i = 0; i <= m; i++) {
+      rows[0][i] = i;
+    }
+    List<List<Match>> byDistance = new ArrayList<List<Match>>();
+    for(int d = 0; d <= maxDistance; d++) {
+      byDistance.add(new ArrayList<Match>());
+    }
+    if(terminal[0] >= 0 && m <= maxDistance) {
+      byDistance.get(m).add(new Match(words[terminal[0]], m));
+    }
+    for(int child = firstChild[0]; child < firstChild[0] + childCount[0]; child++) {
+      search(child, 1, '\0', query, maxDistance, rows, byDistance);
+    }
+    List<Match> matches = new ArrayList<Match>();
+    for(List<Match> bucket : byDistance) {
+      matches.addAll(bucket);
+    }
+    return matches;
+  }
+
+  // scores node, reached from a parent labelled parentLabel, then its subtree
+  private void search(int node, int depth, char parentLabel, String query, int maxDistance,
+                      int[][] rows, List<List<Match>> byDistance) {
+    int m = query.length();
+    char c = labels[node];
+    int[] previous = rows[depth - 1];
+    int[] row = rows[depth];
+    row[0] = depth;
+    int best = depth;
+    for(int i = 1; i <= m; i++) {
+      char q = query.charAt(i - 1);
+      int cost = q == c ? 0 : 1;
+      int value = Math.min(previous[i - 1] + cost, Math.min(previous[i], row[i - 1]) + 1);
+      // transposition of the last two characters
+      if(i > 1 && depth > 1 && q == parentLabel && query.charAt(i - 2) == c) {
+        value = Math.min(value, rows[depth - 2][i - 2] + 1);
+      }
+      row[i] = value;
+      best = Math.min(best, value);
+    }
+    if(best > maxDistance) {
+      return;
+    }
+    if(terminal[node] >= 0 && row[m] <= maxDistance) {
+      byDistance.get(row[m]).add(new Match(words[terminal[node]], row[m]));
+    }
+    for(int child = firstChild[node]; child < firstChild[node] + childCount[node]; child++) {
+      search(child, depth + 1, c, query, maxDistance, rows, byDistance);
+    }
+  }
+
+  // brute force reference: every word checked with the bounded edit distance
+  static List<Match> scan(String[] vocabulary, String query, int maxDistance) {
+    List<List<Match>> byDistance = new ArrayList<List<Match>>();
+    for(int d = 0; d <= maxDistance; d++) {
+      byDistance.add(new ArrayList<Match>());
+    }
+    for(String word : vocabulary) {
+      int distance = Levenshtein.damlevlim(query, word, maxDistance + 1);
+      if(distance <= maxDistance) {
+        byDistance.get(distance).add(new Match(word, distance));
+      }
+    }
+    List<Match> matches = new ArrayList<Match>();
+    for(List<Match> bucket : byDistance) {
+      matches.addAll(bucket);
+    }
+    return matches;
+  }
+
+  // a word with a roughly English length distribution
+  private static String randomWord(Random random) {
+    int length = 2 + (int) Math.abs(random.nextGaussian() * 4);
+    StringBuilder sb = new StringBuilder(length);
+    for(int i = 0; i < length; i++) {
+      sb.append((char)('a' + (int)(26 * Math.pow(random.nextDouble(), 2)))); // skewed letters
+    }
+    return sb.toString();
+  }
+
+  /** Checks search() against a linear scan and times both for growing vocabularies:
+    * the Holbrook training vocabulary, then random words up to one million entries.
+    */
+  public static void main(String[] args) {
+    HolbrookCorpus corpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    Set<String> holbrook = new HashSet<String>();
+    for(Sentence sentence : corpus.getData()) {
+      for(Datum datum : sentence) {
+        holbrook.add(datum.getWord());
+      }
+    }
+    Random random = new Random(42);
+    int[] sizes = { holbrook.size(), 10000, 100000, 1000000 };
+    for(int size : sizes) {
+      Set<String> vocabulary = new HashSet<String>(holbrook);
+      while(vocabulary.size() < size) {
+        vocabulary.add(randomWord(random));
+      }
+      long start = System.nanoTime();
+      FuzzyIndex index = new FuzzyIndex(vocabulary);
+      long build = System.nanoTime() - start;
+
+      List<String> queries = new ArrayList<String>();
+      for(int i = 0; i < 200; i++) {
+        queries.add(i % 2 == 0 ? randomWord(random) : index.words[random.nextInt(index.words.length)]);
+      }
+      for(int k = 1; k <= 2; k++) {
+        long results = 0;
+        start = System.nanoTime();
+        for(String query : queries) {
+          results += index.search(query, k).size();
+        }
+        long trie = System.nanoTime() - start;
+
+        int scanned = size > 100000 ? 20 : queries.size(); // the scan is slow on big vocabularies
+        boolean agree = true;
+        start = System.nanoTime();
+        for(String query : queries.subList(0, scanned)) {
+          List<Match> expected = scan(index.words, query, k);
+          List<Match> actual = index.search(query, k);
+          agree &= expected.toString().equals(actual.toString());
+        }
+        long scan = System.nanoTime() - start;
+        System.out.println(String.format("vocabulary %d (%d nodes, built in %d ms) k=%d: trie %d us/query, scan %d us/query, %.1f matches/query %s",
+            size, index.nodes(), build / 1000000, k, trie / 1000 / queries.size(), scan / 1000 / scanned,
+            (double) results / queries.size(), agree ? "PASS" : "*FAIL*"));
+      }
+    }
+  }
+}
@@ -11,6 +11,7 @@ import java.io.IOException;
 public class HolbrookCorpus {
 
   List<Sentence> data;
+  CompactCorpus compact; // built on first use; guarded by this, like data when replaced
 
   public HolbrookCorpus() { 
     data = new ArrayList<Sentence>();
@@ -29,7 +30,11 @@ public class HolbrookCorpus {
         corpus.add(sentence); 
       }
     }
-    this.data = corpus;
+    // replaced together under the lock of compact(), which then sees the new text
+    synchronized(this) {
+      this.data = corpus;
+      this.compact = null;
+    }
   }
 
 
@@ -128,6 +133,14 @@ public class HolbrookCorpus {
     return data;
   }
 
+  /** Returns the corpus as word id arrays, built once and shared by every caller. */
+  public synchronized CompactCorpus compact() {
+    if(compact == null) {
+      compact = new CompactCorpus(this);
+    }
+    return compact;
+  }
+
 
   // returns Sentences with just one error.
   public List<Sentence> generateTestCases() {
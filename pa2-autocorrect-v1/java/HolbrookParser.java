@@ -0,0 +1,417 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/** Reads Holbrook annotated text straight into word ids, without building a String per token.
+  *
+  * Each line is scanned once: punctuation is dropped and characters are lowercased as they
+  * are copied into a reusable line buffer, and token boundaries are recorded on the way.
+  * &lt;err targ=...&gt; ... &lt;/err&gt; annotations are then resolved on the token offsets,
+  * and words and misspellings are interned straight from the buffer, so only new words
+  * allocate a String. Every sentence is handed to a Handler as reusable arrays of word ids
+  * and misspelling ids (-1 where there is none).
+  *
+  * The result is the same, token for token, as HolbrookCorpus.processLine(), including its
+  * quirks: consecutive spaces give empty words, and a multi-word targ keeps only its first
+  * word, minus that word's last character.
+  */
+public class HolbrookParser {
+
+  /** Receives the sentences; the arrays are reused and only valid during the call. */
+  public interface Handler {
+    void sentence(int[] words, int[] errors, int length);
+  }
+
+  /** Interns character ranges as dense ids, in order of first appearance. */
+  protected static class CharTable {
+    private int[] slots = new int[1024]; // id + 1, 0 for empty
+    private int[] hashes = new int[1024];
+    private final List<String> words = new ArrayList<String>();
+
+    // id of buffer[start, end), which is added if new
+    int id(char[] buffer, int start, int end) {
+      int h = 0;
+      for(int i = start; i < end; i++) {
+        h = 31 * h + buffer[i]; // String.hashCode()
+      }
+      int mask = slots.length - 1;
+      int slot = (h ^ (h >>> 16)) & mask;
+      while(slots[slot] != 0) {
+        if(hashes[slot] == h && equals(words.get(slots[slot] - 1), buffer, start, end)) {
+          return slots[slot] - 1;
+        }
+        slot = (slot + 1) & mask;
+      }
+      words.add(new String(buffer, start, end - start));
+      slots[slot] = words.size();
+      hashes[slot] = h;
+      if(words.size() * 2 > slots.length) {
+        resize();
+      }
+      return words.size() - 1;
+    }
+
+    int id(String word) {
+      char[] chars = word.toCharArray();
+      return id(chars, 0, chars.length);
+    }
+
+    private static boolean equals(String word, char[] buffer, int start, int end) {
+      if(word.length() != end - start) {
+        return false;
+      }
+      for(int i = start; i < end; i++) {
+        if(word.charAt(i - start) != buffer[i]) {
+          return false;
+        }
+      }
+      return true;
+    }
+
+    private void resize() {
+      int[] oldSlots = slots;
+      int[] oldHashes = hashes;
+      slots = new int[oldSlots.length * 2];
+      hashes = new int[oldSlots.length * 2];
+      int mask = slots.length - 1;
+      for(int i = 0; i < oldSlots.length; i++) {
+        if(oldSlots[i] != 0) {
+          int slot = (oldHashes[i] ^ (oldHashes[i] >>> 16)) & mask;
+          while(slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+          }
+          slots[slot] = oldSlots[i];
+          hashes[slot] = oldHashes[i];
+        }
+      }
+    }
+
+    Vocabulary toVocabulary() {
+      Vocabulary vocabulary = new Vocabulary();
+      for(String word : words) {
+        vocabulary.add(word);
+      }
+      return vocabulary;
+    }
+  }
+
+  protected CharTable words = new CharTable();
+  protected CharTable errors = new CharTable();
+  private final int sentenceStart = words.id("<s>");
+  private int sentenceEnd = -1; // interned after the first sentence, as HolbrookCorpus numbers it
+
+  // reusable buffers
+  private char[] line = new char[256];       // the current line, filtered and lowercased
+  private int[] tokenStarts = new int[64];   // token t is line[tokenStarts[t], tokenEnds[t])
+  private int[] tokenEnds = new int[64];
+  private int[] sentenceWords = new int[64];
+  private int[] sentenceErrors = new int[64];
+  private StringBuilder scratch = new StringBuilder();
+  private int annotatedWord;   // result of resolveError()
+  private int annotatedError;
+
+  /** Parses every line of in, passing each sentence to handler. Returns the number of sentences. */
+  public int parse(Reader in, Handler handler) throws IOException {
+    char[] buffer = new char[1 << 16];
+    int filled = 0;
+    int sentences = 0;
+    boolean skipNewline = false; // after a '\r', a following '\n' ends nothing
+    while(true) {
+      int read = in.read(buffer, filled, buffer.length - filled);
+      if(read < 0) {
+        break;
+      }
+      filled += read;
+      int lineStart = 0;
+      for(int i = 0; i < filled; i++) {
+        char c = buffer[i];
+        if(c == '\n' || c == '\r') {
+          if(!(skipNewline && c == '\n' && i == lineStart)) {
+            if(parseLine(buffer, lineStart, i, handler)) {
+              sentences++;
+            }
+          }
+          skipNewline = c == '\r';
+          lineStart = i + 1;
+        } else {
+          skipNewline = false;
+        }
+      }
+      // keep the unfinished line, growing the buffer if it fills it
+      filled -= lineStart;
+      System.arraycopy(buffer, lineStart, buffer, 0, filled);
+      if(filled == buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+    }
+    if(filled > 0 && parseLine(buffer, 0, filled, handler)) {
+      sentences++;
+    }
+    return sentences;
+  }
+
+  private static boolean isPunctuation(char c) {
+    return c == '"' || c == ',' || c == '.' || c == '\'' || c == '!' || c == ':' || c == ';';
+  }
+
+  // parses buffer[start, end); false if the line holds no sentence
+  private boolean parseLine(char[] buffer, int start, int end, Handler handler) {
+    // trim, as String.trim() does
+    while(start < end && buffer[start] <= ' ') {
+      start++;
+    }
+    while(end > start && buffer[end - 1] <= ' ') {
+      end--;
+    }
+    if(line.length < end - start) {
+      line = new char[2 * (end - start)];
+    }
+    // filter and split in one pass; spaces stay in line between tokens
+    int n = 0;
+    int tokens = 0;
+    int tokenStart = 0;
+    for(int i = start; i < end; i++) {
+      char c = buffer[i];
+      if(isPunctuation(c)) {
+        continue;
+      }
+      if(c == ' ') {
+        tokens = addToken(tokens, tokenStart, n);
+        line[n++] = ' ';
+        tokenStart = n;
+      } else {
+        line[n++] = Character.toLowerCase(c);
+      }
+    }
+    if(n == 0) {
+      return false;
+    }
+    tokens = addToken(tokens, tokenStart, n);
+    while(tokens > 0 && tokenStarts[tokens - 1] == tokenEnds[tokens - 1]) {
+      tokens--; // String.split() drops trailing empty strings
+    }
+
+    int length = 0;
+    length = addWord(length, sentenceStart, -1);
+    int t = 0;
+    while(t < tokens) {
+      if(isToken(t, "<err")) {
+        int errorEnd = t;
+        while(errorEnd < tokens && !isToken(errorEnd, "</err>")) {
+          errorEnd++;
+        }
+        if(errorEnd == tokens || !resolveError(t, errorEnd)) {
+          System.err.println("Misformatted error string: " + new String(line, 0, n));
+          return false;
+        }
+        length = addWord(length, annotatedWord, annotatedError);
+        t = errorEnd + 1;
+      } else {
+        length = addWord(length, words.id(line, tokenStarts[t], tokenEnds[t]), -1);
+        t++;
+      }
+    }
+    if(sentenceEnd < 0) {
+      sentenceEnd = words.id("</s>");
+    }
+    length = addWord(length, sentenceEnd, -1);
+    handler.sentence(sentenceWords, sentenceErrors, length);
+    return true;
+  }
+
+  private int addToken(int tokens, int start, int end) {
+    if(tokens == tokenStarts.length) {
+      tokenStarts = Arrays.copyOf(tokenStarts, 2 * tokens);
+      tokenEnds = Arrays.copyOf(tokenEnds, 2 * tokens);
+    }
+    tokenStarts[tokens] = start;
+    tokenEnds[tokens] = end;
+    return tokens + 1;
+  }
+
+  private int addWord(int length, int word, int error) {
+    if(length == sentenceWords.length) {
+      sentenceWords = Arrays.copyOf(sentenceWords, 2 * length);
+      sentenceErrors = Arrays.copyOf(sentenceErrors, 2 * length);
+    }
+    sentenceWords[length] = word;
+    sentenceErrors[length] = error;
+    return length + 1;
+  }
+
+  private boolean isToken(int t, String value) {
+    return CharTable.equals(value, line, tokenStarts[t], tokenEnds[t]);
+  }
+
+  private boolean endsWith(int t, char c) {
+    return tokenEnds[t] > tokenStarts[t] && line[tokenEnds[t] - 1] == c;
+  }
+
+  // resolves the annotation on tokens [first, last] as HolbrookCorpus.processError() does,
+  // into annotatedWord and annotatedError; false if it is misformatted
+  private boolean resolveError(int first, int last) {
+    int count = last - first + 1;
+    if(count < 2) {
+      return false;
+    }
+    // the targ: the first token's text after "=" (up to a second "="), then the tokens
+    // before the first token ending in ">", less the last character
+    int targ = first + 1;
+    int equals = -1;
+    int secondEquals = -1;
+    for(int i = tokenStarts[targ]; i < tokenEnds[targ]; i++) {
+      if(line[i] == '=') {
+        if(equals < 0) {
+          equals = i;
+        } else if(secondEquals < 0) {
+          secondEquals = i;
+        }
+      }
+    }
+    int close = first;
+    while(close <= last && !endsWith(close, '>')) {
+      close++;
+    }
+    if(equals < 0 || close >= last) {
+      return false;
+    }
+    int word;
+    if(secondEquals < 0) {
+      // one contiguous range of the line
+      int start = equals + 1;
+      int end = close > targ ? tokenEnds[close - 1] : tokenEnds[targ];
+      if(end <= start) {
+        return false;
+      }
+      word = words.id(line, start, end - 1);
+    } else {
+      scratch.setLength(0);
+      scratch.append(line, equals + 1, secondEquals - equals - 1);
+      for(int i = targ + 1; i < close; i++) {
+        scratch.append(' ').append(line, tokenStarts[i], tokenEnds[i] - tokenStarts[i]);
+      }
+      if(scratch.length() == 0) {
+        return false;
+      }
+      scratch.setLength(scratch.length() - 1);
+      word = words.id(scratch.toString());
+    }
+    // the misspelling: the tokens after it, up to the closing tag
+    int errorStart = tokenStarts[close + 1];
+    int errorEnd = close + 1 < last ? tokenEnds[last - 1] : tokenEnds[last];
+    annotatedWord = word;
+    annotatedError = errorEnd > errorStart ? errors.id(line, errorStart, errorEnd) : -1;
+    return true;
+  }
+
+  /** The vocabulary of the words parsed so far, ids as given to the handler. */
+  public Vocabulary vocabulary() {
+    return words.toVocabulary();
+  }
+
+  /** The vocabulary of the misspellings parsed so far. */
+  public Vocabulary errorVocabulary() {
+    return errors.toVocabulary();
+  }
+
+  /** Parses in into a CompactCorpus. */
+  public static CompactCorpus parseCorpus(Reader in) throws IOException {
+    HolbrookParser parser = new HolbrookParser();
+    final int[][] columns = { new int[1 << 12], new int[1 << 12], new int[1 << 8] };
+    final int[] sizes = { 0, 1 }; // tokens, sentences + 1
+    parser.parse(in, new Handler() {
+      public void sentence(int[] words, int[] errors, int length) {
+        int tokens = sizes[0];
+        if(columns[0].length < tokens + length) {
+          int capacity = Math.max(2 * columns[0].length, tokens + length);
+          columns[0] = Arrays.copyOf(columns[0], capacity);
+          columns[1] = Arrays.copyOf(columns[1], capacity);
+        }
+        System.arraycopy(words, 0, columns[0], tokens, length);
+        System.arraycopy(errors, 0, columns[1], tokens, length);
+        sizes[0] += length;
+        if(columns[2].length == sizes[1]) {
+          columns[2] = Arrays.copyOf(columns[2], 2 * sizes[1]);
+        }
+        columns[2][sizes[1]++] = sizes[0];
+      }
+    });
+    return new CompactCorpus(parser.vocabulary(), parser.errorVocabulary(),
+        Arrays.copyOf(columns[0], sizes[0]), Arrays.copyOf(columns[1], sizes[0]),
+        Arrays.copyOf(columns[2], sizes[1]));
+  }
+
+  /** Checks that the parser gives the same corpus as HolbrookCorpus.compact() on the train
+    * and dev files and on a generated one, then times both on the generated file.
+    *
+    * usage: HolbrookParser [sentences]
+    */
+  public static void main(String[] args) throws IOException {
+    int sentences = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+    String train = "../data/holbrook-tagged-train.dat";
+    String dev = "../data/holbrook-tagged-dev.dat";
+    File generated = File.createTempFile("holbrook", ".dat");
+    generated.deleteOnExit();
+    Writer out = new BufferedWriter(new FileWriter(generated));
+    try {
+      out.write(SpellingBenchmark.generateCorpus(new HolbrookCorpus(train), sentences, new Random(42)));
+    } finally {
+      out.close();
+    }
+    for(String file : new String[] { train, dev, generated.getPath() }) {
+      System.out.println(String.format("%s: %s", new File(file).getName(),
+          sameCorpus(new HolbrookCorpus(file).compact(), parseFile(file)) ? "PASS" : "*FAIL*"));
+    }
+
+    double megabytes = generated.length() / (1024.0 * 1024.0);
+    String file = generated.getPath();
+    long slurp = Long.MAX_VALUE;
+    long compact = Long.MAX_VALUE;
+    long parse = Long.MAX_VALUE;
+    int parsed = 0;
+    for(int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      HolbrookCorpus corpus = new HolbrookCorpus(file);
+      slurp = Math.min(slurp, System.nanoTime() - start);
+      corpus.compact();
+      compact = Math.min(compact, System.nanoTime() - start);
+      start = System.nanoTime();
+      parsed = parseFile(file).sentences();
+      parse = Math.min(parse, System.nanoTime() - start);
+    }
+    System.out.println(String.format("%d sentences, %.1f MB", parsed, megabytes));
+    report("HolbrookCorpus", slurp, megabytes, parsed);
+    report("HolbrookCorpus.compact()", compact, megabytes, parsed);
+    report("HolbrookParser", parse, megabytes, parsed);
+  }
+
+  private static CompactCorpus parseFile(String file) throws IOException {
+    Reader in = new FileReader(file);
+    try {
+      return parseCorpus(in);
+    } finally {
+      in.close();
+    }
+  }
+
+  private static void report(String name, long nanos, double megabytes, int sentences) {
+    double seconds = nanos / 1e9;
+    System.out.println(String.format("%-26s %6d ms %8.1f MB/s %10.0f sentences/s",
+        name, nanos / 1000000, megabytes / seconds, sentences / seconds));
+  }
+
+  private static boolean sameCorpus(CompactCorpus a, CompactCorpus b) {
+    return Arrays.equals(a.words, b.words) && Arrays.equals(a.errors, b.errors)
+        && Arrays.equals(a.offsets, b.offsets)
+        && a.vocabulary.words().equals(b.vocabulary.words())
+        && a.errorVocabulary.words().equals(b.errorVocabulary.words());
+  }
+}
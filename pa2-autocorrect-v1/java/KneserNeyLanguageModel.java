@@ -0,0 +1,387 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Interpolated modified Kneser-Ney model (Chen &amp; Goodman) of any order, by default trigrams.
+  *
+  * Lower orders are estimated from continuation counts, with three discounts per order
+  * (for adjusted counts 1, 2 and 3+) estimated from counts of counts. N-grams of order two
+  * and up that were seen fewer than minCount times can be pruned; their probability mass
+  * is moved into the backoff weight of their context, so the model stays normalized.
+  *
+  * The model is stored as a trie of sorted arrays keyed by reversed n-grams: level k holds
+  * the (k+1)-grams w_{i-k} .. w_i on the path w_i, w_{i-1}, .., w_{i-k}. Scoring a word
+  * walks the trie once for the longest matching n-gram and once for the backoff weights of
+  * its context, i.e. O(order) binary searches over small sibling ranges.
+  */
+public class KneserNeyLanguageModel extends BatchLanguageModel
+    implements LanguageModel, BackoffLanguageModel, StatefulLanguageModel {
+
+  protected int order;
+  protected int minCount;
+  protected Vocabulary vocabulary;
+  protected double unknownLogProb;
+
+  // level k: words[k][j] is the word the node adds to its parent (level 0 is indexed by
+  // word id), probs[k][j] is log p(w_i | w_{i-k} .. w_{i-1}), backoffs[k][j] the log backoff
+  // weight of the n-gram as a context. The children of node j are the nodes
+  // children[k][j] .. children[k][j+1] - 1 of level k + 1.
+  protected int[][] words;
+  protected float[][] probs;
+  protected float[][] backoffs;
+  protected int[][] children;
+
+  public KneserNeyLanguageModel(HolbrookCorpus corpus) {
+    this(corpus, 3, 1);
+  }
+
+  /** minCount = 1 keeps every n-gram. */
+  public KneserNeyLanguageModel(HolbrookCorpus corpus, int order, int minCount) {
+    if(order < 1) {
+      throw new IllegalArgumentException("order must be positive: " + order);
+    }
+    this.order = order;
+    this.minCount = minCount;
+    train(corpus);
+  }
+
+  /** An n-gram of word ids, usable as a hash key. */
+  protected static final class Ngram {
+    final int[] ids;
+    final int hash;
+
+    Ngram(int[] ids) {
+      this.ids = ids;
+      this.hash = Arrays.hashCode(ids);
+    }
+
+    Ngram(int[] sentence, int start, int length) {
+      this(Arrays.copyOfRange(sentence, start, start + length));
+    }
+
+    // drops the first word
+    Ngram suffix() {
+      return new Ngram(ids, 1, ids.length - 1);
+    }
+
+    // drops the last word
+    Ngram prefix() {
+      return new Ngram(ids, 0, ids.length - 1);
+    }
+
+    public int hashCode() {
+      return hash;
+    }
+
+    public boolean equals(Object o) {
+      return o instanceof Ngram && Arrays.equals(ids, ((Ngram) o).ids);
+    }
+  }
+
+  // orders reversed n-grams of one length lexicographically, i.e. by last word first
+  private static final Comparator<Ngram> REVERSED = new Comparator<Ngram>() {
+    public int compare(Ngram a, Ngram b) {
+      for(int i = a.ids.length - 1; i >= 0; i--) {
+        if(a.ids[i] != b.ids[i]) {
+          return a.ids[i] < b.ids[i] ? -1 : 1;
+        }
+      }
+      return 0;
+    }
+  };
+
+  /** Takes a corpus and trains your language model.
+    * Compute any counts or other corpus statistics in this function.
+    */
+  public void train(HolbrookCorpus corpus) {
+    CompactCorpus compact = corpus.compact();
+    vocabulary = compact.vocabulary(); // shared, never added to
+    List<int[]> sentences = new ArrayList<int[]>();
+    for(int s = 0; s < compact.sentences(); s++) {
+      sentences.add(compact.sentence(s));
+    }
+    int sentenceStart = vocabulary.id("<s>");
+
+    // counts.get(k)[g] = {raw count, adjusted count} of the (k+1)-grams g
+    List<Map<Ngram, int[]>> counts = new ArrayList<Map<Ngram, int[]>>();
+    for(int k = 0; k < order; k++) {
+      counts.add(new HashMap<Ngram, int[]>());
+    }
+    for(int[] ids : sentences) {
+      for(int i = 0; i < ids.length; i++) {
+        for(int k = 0; k < order && k <= i; k++) {
+          Ngram ngram = new Ngram(ids, i - k, k + 1);
+          int[] count = counts.get(k).get(ngram);
+          if(count == null) {
+            count = new int[2];
+            counts.get(k).put(ngram, count);
+          }
+          count[0]++;
+        }
+      }
+    }
+
+    // adjusted counts: raw counts for the highest order and for n-grams starting a
+    // sentence, otherwise the number of distinct words seen to the left.
+    for(int k = 0; k < order; k++) {
+      for(Map.Entry<Ngram, int[]> entry : counts.get(k).entrySet()) {
+        if(k == order - 1 || entry.getKey().ids[0] == sentenceStart) {
+          entry.getValue()[1] = entry.getValue()[0];
+        }
+      }
+      if(k > 0) {
+        for(Ngram ngram : counts.get(k).keySet()) {
+          Ngram suffix = ngram.suffix();
+          if(suffix.ids[0] != sentenceStart) {
+            counts.get(k - 1).get(suffix)[1]++;
+          }
+        }
+      }
+    }
+
+    // estimate each order from the one below it
+    List<Map<Ngram, Double>> logProbs = new ArrayList<Map<Ngram, Double>>();
+    List<Map<Ngram, Double>> logBackoffs = new ArrayList<Map<Ngram, Double>>();
+    for(int k = 0; k < order; k++) {
+      double[] discounts = discounts(counts.get(k).values());
+
+      // per context: {sum of adjusted counts, discounted mass of the n-grams kept}
+      Map<Ngram, double[]> contexts = new HashMap<Ngram, double[]>();
+      Map<Ngram, int[]> kept = new HashMap<Ngram, int[]>();
+      for(Map.Entry<Ngram, int[]> entry : counts.get(k).entrySet()) {
+        Ngram context = entry.getKey().prefix();
+        double[] stats = contexts.get(context);
+        if(stats == null) {
+          stats = new double[2];
+          contexts.put(context, stats);
+        }
+        int adjusted = entry.getValue()[1];
+        stats[0] += adjusted;
+        if(k == 0 || entry.getValue()[0] >= minCount) {
+          stats[1] += adjusted - discounts[Math.min(adjusted, 3)];
+          kept.put(entry.getKey(), entry.getValue());
+        }
+      }
+
+      Map<Ngram, Double> gammas = new HashMap<Ngram, Double>();
+      for(Map.Entry<Ngram, double[]> entry : contexts.entrySet()) {
+        double[] stats = entry.getValue();
+        gammas.put(entry.getKey(), stats[0] > 0 ? 1.0 - stats[1] / stats[0] : 1.0);
+      }
+      if(k > 0) {
+        Map<Ngram, Double> backoffs = new HashMap<Ngram, Double>();
+        for(Map.Entry<Ngram, Double> entry : gammas.entrySet()) {
+          backoffs.put(entry.getKey(), logOf(entry.getValue()));
+        }
+        logBackoffs.add(backoffs);
+      }
+
+      double uniform = 1.0 / (vocabulary.size() + 1); // + 1 for unknown words
+      Map<Ngram, Double> probs = new HashMap<Ngram, Double>();
+      for(Map.Entry<Ngram, int[]> entry : kept.entrySet()) {
+        Ngram ngram = entry.getKey();
+        Ngram context = ngram.prefix();
+        int adjusted = entry.getValue()[1];
+        double lower = k == 0 ? uniform : Math.exp(logProbs.get(k - 1).get(ngram.suffix()));
+        double p = (adjusted - discounts[Math.min(adjusted, 3)]) / contexts.get(context)[0]
+            + gammas.get(context) * lower;
+        probs.put(ngram, Math.log(p));
+      }
+      logProbs.add(probs);
+      if(k == 0) {
+        unknownLogProb = logOf(gammas.get(new Ngram(new int[0])) * uniform);
+      }
+    }
+    logBackoffs.add(new HashMap<Ngram, Double>()); // the highest order is never a context
+
+    buildTrie(logProbs, logBackoffs);
+  }
+
+  private static double logOf(double p) {
+    return p > 0 ? Math.log(p) : -Double.MAX_VALUE;
+  }
+
+  /** Modified Kneser-Ney discounts D(1), D(2), D(3+) at indexes 1..3. */
+  static double[] discounts(Iterable<int[]> counts) {
+    double[] n = new double[5]; // counts of adjusted counts 1..4
+    for(int[] count : counts) {
+      if(count[1] >= 1 && count[1] <= 4) {
+        n[count[1]]++;
+      }
+    }
+    double[] discounts = new double[4];
+    if(n[1] == 0 || n[2] == 0 || n[3] == 0 || n[4] == 0) {
+      // too little data for the estimate: absolute discounting
+      discounts[1] = discounts[2] = discounts[3] = 0.75;
+      return discounts;
+    }
+    double y = n[1] / (n[1] + 2 * n[2]);
+    for(int i = 1; i <= 3; i++) {
+      double d = i - (i + 1) * y * n[i + 1] / n[i];
+      discounts[i] = Math.max(0.0, Math.min(i, d));
+    }
+    return discounts;
+  }
+
+  private void buildTrie(List<Map<Ngram, Double>> logProbs, List<Map<Ngram, Double>> logBackoffs) {
+    int size = vocabulary.size();
+    words = new int[order][];
+    probs = new float[order][];
+    backoffs = new float[order][];
+    children = new int[order][];
+
+    probs[0] = new float[size];
+    backoffs[0] = new float[size];
+    List<Ngram> parents = new ArrayList<Ngram>();
+    for(int id = 0; id < size; id++) {
+      Ngram unigram = new Ngram(new int[] { id });
+      Double p = logProbs.get(0).get(unigram);
+      probs[0][id] = p == null ? (float) unknownLogProb : p.floatValue();
+      Double b = logBackoffs.get(0).get(unigram);
+      backoffs[0][id] = b == null ? 0.0f : b.floatValue();
+      parents.add(unigram);
+    }
+
+    for(int k = 1; k < order; k++) {
+      List<Ngram> level = new ArrayList<Ngram>(logProbs.get(k).keySet());
+      Collections.sort(level, REVERSED);
+      words[k] = new int[level.size()];
+      probs[k] = new float[level.size()];
+      backoffs[k] = new float[level.size()];
+      children[k - 1] = new int[parents.size() + 1];
+
+      // parents are sorted the same way, so one merge pass finds every child range
+      int parent = 0;
+      for(int j = 0; j < level.size(); j++) {
+        Ngram ngram = level.get(j);
+        Ngram suffix = ngram.suffix();
+        while(REVERSED.compare(parents.get(parent), suffix) < 0) {
+          children[k - 1][++parent] = j;
+        }
+        words[k][j] = ngram.ids[0];
+        probs[k][j] = logProbs.get(k).get(ngram).floatValue();
+        Double b = logBackoffs.get(k).get(ngram);
+        backoffs[k][j] = b == null ? 0.0f : b.floatValue();
+      }
+      while(parent < parents.size()) {
+        children[k - 1][++parent] = level.size();
+      }
+      parents = level;
+    }
+  }
+
+  // index of the child of node (at level k) that adds word, -1 if there is none
+  protected int child(int k, int node, int word) {
+    int[] siblings = words[k + 1];
+    int lo = children[k][node];
+    int hi = children[k][node + 1] - 1;
+    while(lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      if(siblings[mid] < word) {
+        lo = mid + 1;
+      } else if(siblings[mid] > word) {
+        hi = mid - 1;
+      } else {
+        return mid;
+      }
+    }
+    return -1;
+  }
+
+  /** log p(ids[i] | ids[i - order + 1] .. ids[i - 1]), ids of unknown words being -1. */
+  protected double logProb(int[] ids, int i) {
+    int contextLength = Math.min(order - 1, i);
+    int word = ids[i];
+    double logProb = unknownLogProb;
+    int matched = 0; // length of the longest n-gram found
+    if(word >= 0) {
+      int node = word;
+      logProb = probs[0][node];
+      matched = 1;
+      while(matched <= contextLength && ids[i - matched] >= 0) {
+        node = child(matched - 1, node, ids[i - matched]);
+        if(node < 0) {
+          break;
+        }
+        logProb = probs[matched][node];
+        matched++;
+      }
+    }
+    // back off from every context longer than the n-gram used
+    int node = -1;
+    for(int k = 1; k <= contextLength && ids[i - k] >= 0; k++) {
+      node = k == 1 ? ids[i - 1] : child(k - 2, node, ids[i - k]);
+      if(node < 0) {
+        break;
+      }
+      if(k >= matched) {
+        logProb += backoffs[k - 1][node];
+      }
+    }
+    return logProb;
+  }
+
+  protected double term(int[] ids, int i) {
+    return logProb(ids, i);
+  }
+
+  public int wordId(String word) {
+    return vocabulary.id(word);
+  }
+
+  public double logProb(int[] window) {
+    return logProb(window, window.length - 1);
+  }
+
+  public int getOrder() {
+    return order;
+  }
+
+  public double getUnknownLogProb() {
+    return unknownLogProb;
+  }
+
+  public double getDefaultBackoff() {
+    return 0.0;
+  }
+
+  /** Returns the number of n-grams stored for each order. */
+  public int[] getNgramCounts() {
+    int[] counts = new int[order];
+    counts[0] = probs[0].length;
+    for(int k = 1; k < order; k++) {
+      counts[k] = probs[k].length;
+    }
+    return counts;
+  }
+
+  public Map<List<String>, double[]> getNgrams(int n) {
+    Map<List<String>, double[]> ngrams = new HashMap<List<String>, double[]>();
+    int[] path = new int[n];
+    for(int id = 0; id < probs[0].length; id++) {
+      path[0] = id;
+      collect(0, id, n, path, ngrams);
+    }
+    return ngrams;
+  }
+
+  // walks the subtree of node at level k, adding every n-gram of length n under it
+  private void collect(int k, int node, int n, int[] path, Map<List<String>, double[]> ngrams) {
+    if(k == n - 1) {
+      List<String> ngram = new ArrayList<String>(n);
+      for(int i = n - 1; i >= 0; i--) {
+        ngram.add(vocabulary.word(path[i]));
+      }
+      ngrams.put(ngram, new double[] { probs[k][node], backoffs[k][node] });
+      return;
+    }
+    for(int child = children[k][node]; child < children[k][node + 1]; child++) {
+      path[k + 1] = words[k + 1][child];
+      collect(k + 1, child, n, path, ngrams);
+    }
+  }
+}
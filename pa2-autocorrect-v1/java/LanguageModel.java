@@ -1,7 +1,7 @@
 import java.util.List;
 // returns score for a sentence. (list of words)
 // trains on a List<List<String>> corpus.
-public interface LanguageModel {
+public interface LanguageModel extends ReadOnlyLanguageModel {
 
   // train a language model.
   public void train(HolbrookCorpus corpus);
@@ -18,6 +18,10 @@
  * April 16 2009 fix for 'limit' handling for invocations like:
  *   - damlevlim('h', 'hello', 2) = 4 - should be 2!
  * July 18 2009 moved to package spinneret.util
+ *
+ * The convenience versions without a workspace argument use the bit-parallel
+ * algorithm in MyersEditDistance; the workspace versions are the dynamic
+ * programs it is checked against (see MyersEditDistance.main).
  */
 
 public class Levenshtein
@@ -321,28 +325,28 @@ public class Levenshtein
 	public static int lev(String s, String t)
 	{
 		if (s != null && t != null)
-			return lev(s, t, getWorkspace(s.length(), t.length()));
+			return MyersEditDistance.lev(s, t);
 		else
 			return lev(s, t, ZERO_LENGTH_INT_ARRAY);
 	}
 	public static int levlim(String s, String t, int limit)
 	{
 		if (s != null && t != null)
-			return levlim(s, t, limit, getWorkspace(s.length(), t.length()));
+			return MyersEditDistance.levlim(s, t, limit);
 		else
 			return levlim(s, t, limit, ZERO_LENGTH_INT_ARRAY);
 	}
 	public static int damlev(String s, String t)
 	{
 		if (s != null && t != null)
-			return damlev(s, t, getWorkspace(s.length(), t.length()));
+			return MyersEditDistance.damlev(s, t);
 		else
 			return damlev(s, t, ZERO_LENGTH_INT_ARRAY);
 	}
 	public static int damlevlim(String s, String t, int limit)
 	{
 		if (s != null && t != null)
-			return damlevlim(s, t, limit, getWorkspace(s.length(), t.length()));
+			return MyersEditDistance.damlevlim(s, t, limit);
 		else
 			return damlevlim(s, t, limit, ZERO_LENGTH_INT_ARRAY);
 	}
@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/** Open addressing hash map from long keys to positive int counts.
+  *
+  * Keys and counts live in two parallel arrays and are probed linearly, so counting does
+  * not allocate an object per key. A count of 0 marks an empty slot: a key is only stored
+  * once it has been added with a positive amount, and get() returns 0 for absent keys.
+  * Not thread-safe.
+  */
+public class LongIntMap {
+
+  protected long[] keys;
+  protected int[] values;
+  protected int size;
+  protected int mask;
+
+  public LongIntMap() {
+    this(16);
+  }
+
+  public LongIntMap(int expectedSize) {
+    int capacity = 16;
+    while(capacity * 3 < expectedSize * 4) { // load factor .75
+      capacity <<= 1;
+    }
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+  }
+
+  // spreads the key over the table; packed n-grams differ mostly in the low bits
+  static int hash(long key) {
+    key *= 0x9e3779b97f4a7c15L;
+    return (int) (key ^ (key >>> 32));
+  }
+
+  /** Adds amount (&gt; 0) to the count of key. */
+  public void add(long key, int amount) {
+    int slot = hash(key) & mask;
+    while(values[slot] != 0) {
+      if(keys[slot] == key) {
+        values[slot] += amount;
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    keys[slot] = key;
+    values[slot] = amount;
+    if(++size * 4 > keys.length * 3) {
+      resize(keys.length * 2);
+    }
+  }
+
+  public void increment(long key) {
+    add(key, 1);
+  }
+
+  /** Returns the count of key, 0 if it was never added. */
+  public int get(long key) {
+    int slot = hash(key) & mask;
+    while(values[slot] != 0) {
+      if(keys[slot] == key) {
+        return values[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return 0;
+  }
+
+  /** Adds every count of other to this map. */
+  public void addAll(LongIntMap other) {
+    for(int slot = 0; slot < other.capacity(); slot++) {
+      if(other.values[slot] != 0) {
+        add(other.keys[slot], other.values[slot]);
+      }
+    }
+  }
+
+  private void resize(int capacity) {
+    long[] oldKeys = keys;
+    int[] oldValues = values;
+    keys = new long[capacity];
+    values = new int[capacity];
+    mask = capacity - 1;
+    for(int i = 0; i < oldKeys.length; i++) {
+      if(oldValues[i] != 0) {
+        int slot = hash(oldKeys[i]) & mask;
+        while(values[slot] != 0) {
+          slot = (slot + 1) & mask;
+        }
+        keys[slot] = oldKeys[i];
+        values[slot] = oldValues[i];
+      }
+    }
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** Returns the number of slots; iterate with isUsed(), keyAt() and valueAt(). */
+  public int capacity() {
+    return keys.length;
+  }
+
+  public boolean isUsed(int slot) {
+    return values[slot] != 0;
+  }
+
+  public long keyAt(int slot) {
+    return keys[slot];
+  }
+
+  public int valueAt(int slot) {
+    return values[slot];
+  }
+
+  public void clear() {
+    Arrays.fill(values, 0);
+    size = 0;
+  }
+}
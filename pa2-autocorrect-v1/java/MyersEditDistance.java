@@ -0,0 +1,344 @@
+import java.util.Arrays;
+import java.util.Random;
+
+/** Bit-parallel edit distance: Myers' algorithm as formulated by Hyyro for Levenshtein
+  * distance, and Hyyro's extension for Damerau-Levenshtein distance with adjacent
+  * transpositions (optimal string alignment, as computed by EditDistance and
+  * Levenshtein.damlev).
+  *
+  * One column of the dynamic programming matrix is encoded as vertical +1/-1 delta bit
+  * vectors over the shorter string, so each character of the longer string is processed
+  * with a handful of word operations: O(n) for strings up to 64 characters, O(n * m / 64)
+  * for longer ones. Methods are static, thread safe and allocation free for strings of up
+  * to 64 latin-1 characters.
+  *
+  * See: Heikki Hyyro (2003) A bit-vector algorithm for computing Levenshtein and Damerau
+  * edit distances. Nordic Journal of Computing 10.
+  */
+public class MyersEditDistance {
+
+  /** Levenshtein distance. */
+  public static int lev(CharSequence s, CharSequence t) {
+    return distance(s, t, false, Integer.MAX_VALUE);
+  }
+
+  /** Levenshtein distance, or limit if it is at least limit. */
+  public static int levlim(CharSequence s, CharSequence t, int limit) {
+    return distance(s, t, false, limit);
+  }
+
+  /** Damerau-Levenshtein (optimal string alignment) distance. */
+  public static int damlev(CharSequence s, CharSequence t) {
+    return distance(s, t, true, Integer.MAX_VALUE);
+  }
+
+  /** Damerau-Levenshtein distance, or limit if it is at least limit. */
+  public static int damlevlim(CharSequence s, CharSequence t, int limit) {
+    return distance(s, t, true, limit);
+  }
+
+  /** Edit distance with or without transpositions, capped at limit. */
+  public static int distance(CharSequence s, CharSequence t, boolean allowTransposition, int limit) {
+    // the shorter string is the pattern, encoded in the bit vectors
+    if(s.length() > t.length()) {
+      CharSequence tmp = s;
+      s = t;
+      t = tmp;
+    }
+    int m = s.length();
+    int n = t.length();
+    if(n - m >= limit) {
+      return limit;
+    }
+    if(m == 0) {
+      return n;
+    }
+    if(m <= 64) {
+      return allowTransposition ? damlevWord(s, t, limit) : levWord(s, t, limit);
+    }
+    return distanceBlocks(s, t, allowTransposition, limit);
+  }
+
+  // pattern match masks for latin-1 characters, one table per thread; entries are reset
+  // after every call so the table never needs clearing.
+  private static final ThreadLocal<long[]> LATIN1 = new ThreadLocal<long[]>() {
+    protected long[] initialValue() {
+      return new long[256];
+    }
+  };
+
+  // match mask of c against s (length <= 64), for characters outside latin-1
+  private static long mask(CharSequence s, char c) {
+    long mask = 0L;
+    for(int i = 0; i < s.length(); i++) {
+      if(s.charAt(i) == c) {
+        mask |= 1L << i;
+      }
+    }
+    return mask;
+  }
+
+  private static long[] fillMasks(CharSequence s) {
+    long[] peq = LATIN1.get();
+    for(int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c < 256) {
+        peq[c] |= 1L << i;
+      }
+    }
+    return peq;
+  }
+
+  private static void clearMasks(long[] peq, CharSequence s) {
+    for(int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      if(c < 256) {
+        peq[c] = 0L;
+      }
+    }
+  }
+
+  private static int levWord(CharSequence s, CharSequence t, int limit) {
+    int m = s.length();
+    int n = t.length();
+    long[] peq = fillMasks(s);
+    long last = 1L << (m - 1);
+    long vp = -1L;
+    long vn = 0L;
+    int score = m;
+    for(int j = 0; j < n; j++) {
+      char c = t.charAt(j);
+      long eq = c < 256 ? peq[c] : mask(s, c);
+      long d0 = (((eq & vp) + vp) ^ vp) | eq | vn;
+      long hp = vn | ~(d0 | vp);
+      long hn = d0 & vp;
+      if((hp & last) != 0) {
+        score++;
+      } else if((hn & last) != 0) {
+        score--;
+      }
+      // the score can drop by at most one per remaining character
+      if(score - (n - j - 1) >= limit) {
+        clearMasks(peq, s);
+        return limit;
+      }
+      hp = (hp << 1) | 1L;
+      hn = hn << 1;
+      vp = hn | ~(d0 | hp);
+      vn = hp & d0;
+    }
+    clearMasks(peq, s);
+    return Math.min(score, limit);
+  }
+
+  private static int damlevWord(CharSequence s, CharSequence t, int limit) {
+    int m = s.length();
+    int n = t.length();
+    long[] peq = fillMasks(s);
+    long last = 1L << (m - 1);
+    long vp = -1L;
+    long vn = 0L;
+    long d0 = 0L;
+    long previousEq = 0L;
+    int score = m;
+    for(int j = 0; j < n; j++) {
+      char c = t.charAt(j);
+      long eq = c < 256 ? peq[c] : mask(s, c);
+      long transposed = (((~d0) & eq) << 1) & previousEq;
+      d0 = (((eq & vp) + vp) ^ vp) | eq | vn | transposed;
+      long hp = vn | ~(d0 | vp);
+      long hn = d0 & vp;
+      if((hp & last) != 0) {
+        score++;
+      } else if((hn & last) != 0) {
+        score--;
+      }
+      if(score - (n - j - 1) >= limit) {
+        clearMasks(peq, s);
+        return limit;
+      }
+      hp = (hp << 1) | 1L;
+      hn = hn << 1;
+      vp = hn | ~(d0 | hp);
+      vn = hp & d0;
+      previousEq = eq;
+    }
+    clearMasks(peq, s);
+    return Math.min(score, limit);
+  }
+
+  // unsigned a < b
+  private static boolean lessUnsigned(long a, long b) {
+    return (a ^ Long.MIN_VALUE) < (b ^ Long.MIN_VALUE);
+  }
+
+  /** Block-based version for patterns longer than 64 characters: the bit vectors span
+    * several words, with carries for the addition and the shifts passed between them.
+    */
+  private static int distanceBlocks(CharSequence s, CharSequence t, boolean allowTransposition, int limit) {
+    int m = s.length();
+    int n = t.length();
+    int blocks = (m + 63) >>> 6;
+    long last = 1L << ((m - 1) & 63);
+
+    // distinct characters of s and their masks, block by block
+    char[] chars = new char[m];
+    long[][] peq = new long[m][];
+    int distinct = 0;
+    for(int i = 0; i < m; i++) {
+      char c = s.charAt(i);
+      int k = 0;
+      while(k < distinct && chars[k] != c) {
+        k++;
+      }
+      if(k == distinct) {
+        chars[distinct] = c;
+        peq[distinct++] = new long[blocks];
+      }
+      peq[k][i >>> 6] |= 1L << (i & 63);
+    }
+    long[] none = new long[blocks];
+    long[] vp = new long[blocks];
+    long[] vn = new long[blocks];
+    long[] d0 = new long[blocks];
+    long[] previousEq = none;
+    Arrays.fill(vp, -1L);
+
+    int score = m;
+    for(int j = 0; j < n; j++) {
+      char c = t.charAt(j);
+      long[] eqs = none;
+      for(int k = 0; k < distinct; k++) {
+        if(chars[k] == c) {
+          eqs = peq[k];
+          break;
+        }
+      }
+      long addCarry = 0L;
+      long hpCarry = 1L;
+      long hnCarry = 0L;
+      long transposeCarry = 0L;
+      for(int b = 0; b < blocks; b++) {
+        long eq = eqs[b];
+        long x = eq | vn[b];
+        if(allowTransposition) {
+          long unmatched = (~d0[b]) & eq;
+          x |= ((unmatched << 1) | transposeCarry) & previousEq[b];
+          transposeCarry = unmatched >>> 63;
+        }
+        long sum = (eq & vp[b]) + vp[b];
+        long carried = sum + addCarry;
+        long carryOut = (lessUnsigned(sum, vp[b]) || lessUnsigned(carried, sum)) ? 1L : 0L;
+        addCarry = carryOut;
+        long d = (carried ^ vp[b]) | x;
+        long hp = vn[b] | ~(d | vp[b]);
+        long hn = d & vp[b];
+        if(b == blocks - 1) {
+          if((hp & last) != 0) {
+            score++;
+          } else if((hn & last) != 0) {
+            score--;
+          }
+        }
+        long hpOut = hp >>> 63;
+        long hnOut = hn >>> 63;
+        hp = (hp << 1) | hpCarry;
+        hn = (hn << 1) | hnCarry;
+        hpCarry = hpOut;
+        hnCarry = hnOut;
+        vp[b] = hn | ~(d | hp);
+        vn[b] = hp & d;
+        d0[b] = d;
+      }
+      previousEq = eqs;
+      if(score - (n - j - 1) >= limit) {
+        return limit;
+      }
+    }
+    return Math.min(score, limit);
+  }
+
+  // random string over a small alphabet, so that matches and transpositions are common
+  private static String randomString(Random random, int length, String alphabet) {
+    StringBuilder sb = new StringBuilder(length);
+    for(int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+
+  // copy of s with a few random edits applied
+  private static String mutate(Random random, String s, String alphabet) {
+    StringBuilder sb = new StringBuilder(s);
+    int edits = random.nextInt(4);
+    for(int e = 0; e < edits && sb.length() > 1; e++) {
+      int i = random.nextInt(sb.length() - 1);
+      switch(random.nextInt(4)) {
+        case 0: sb.deleteCharAt(i); break;
+        case 1: sb.insert(i, alphabet.charAt(random.nextInt(alphabet.length()))); break;
+        case 2: sb.setCharAt(i, alphabet.charAt(random.nextInt(alphabet.length()))); break;
+        default: char c = sb.charAt(i); sb.setCharAt(i, sb.charAt(i + 1)); sb.setCharAt(i + 1, c);
+      }
+    }
+    return sb.toString();
+  }
+
+  /** Checks against the dynamic programming implementations, then times both. */
+  public static void main(String[] args) {
+    Random random = new Random(42);
+    String[] alphabets = { "ab", "abcd", "abcdefghijklmnopqrstuvwxyz", "ab\u00e9\u4e2d" };
+    int failures = 0;
+    int checks = 0;
+    for(int trial = 0; trial < 20000; trial++) {
+      String alphabet = alphabets[trial % alphabets.length];
+      int length = trial % 10 == 0 ? random.nextInt(200) : random.nextInt(20);
+      String s = randomString(random, length, alphabet);
+      String t = random.nextBoolean() ? mutate(random, s, alphabet) : randomString(random, random.nextInt(70), alphabet);
+      int limit = 1 + random.nextInt(5);
+      int[] expected = { Levenshtein.lev(s, t, Levenshtein.getWorkspace(s.length(), t.length())),
+                         Levenshtein.damlev(s, t, Levenshtein.getWorkspace(s.length(), t.length())),
+                         Levenshtein.levlim(s, t, limit, Levenshtein.getWorkspace(s.length(), t.length())),
+                         Levenshtein.damlevlim(s, t, limit, Levenshtein.getWorkspace(s.length(), t.length())),
+                         EditDistance.dynamicEditDistance(s, t, true),
+                         EditDistance.dynamicEditDistance(s, t, false) };
+      int[] actual = { lev(s, t), damlev(s, t), levlim(s, t, limit), damlevlim(s, t, limit),
+                       EditDistance.editDistance(s, t, true), EditDistance.editDistance(s, t, false) };
+      for(int i = 0; i < expected.length; i++) {
+        checks++;
+        if(expected[i] != actual[i]) {
+          failures++;
+          if(failures <= 10) {
+            System.out.println(String.format("*FAIL* check %d on \"%s\" \"%s\" limit %d: expected %d got %d",
+                i, s, t, limit, expected[i], actual[i]));
+          }
+        }
+      }
+    }
+    System.out.println(String.format("%d checks, %d failures %s", checks, failures, failures == 0 ? "PASS" : "*FAIL*"));
+
+    String[][] pairs = { { "speling", "spelling" }, { "recieve", "receive" },
+                         { "0876786s896d8cvs9dvdfvdf87v09df8v7d0fv7df0v87dsf0v87dfv",
+                           "7869vc87b 9cv8b7cvb,2jk3,2gj5k43,25gj4k3,2g5j4k3,2g5jk423," } };
+    int cycles = 200000;
+    for(int round = 0; round < 3; round++) {
+      for(String[] pair : pairs) {
+        String s = pair[0];
+        String t = pair[1];
+        int[] workspace = Levenshtein.getWorkspace(s.length(), t.length());
+        long total = 0;
+        long start = System.nanoTime();
+        for(int i = 0; i < cycles; i++) {
+          total += Levenshtein.damlev(s, t, workspace);
+        }
+        long dynamic = System.nanoTime() - start;
+        start = System.nanoTime();
+        for(int i = 0; i < cycles; i++) {
+          total += damlev(s, t);
+        }
+        long bitParallel = System.nanoTime() - start;
+        System.out.println(String.format("damlev length %d/%d: dynamic %d ns, bit-parallel %d ns (checksum %d)",
+            s.length(), t.length(), dynamic / cycles, bitParallel / cycles, total));
+      }
+    }
+  }
+}
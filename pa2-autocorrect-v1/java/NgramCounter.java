@@ -0,0 +1,250 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Counts the n-grams of a CompactCorpus, up to a given order, on several threads.
+  *
+  * N-grams are word ids packed into a long, bits bits per word, and never cross sentence
+  * boundaries (the &lt;s&gt; and &lt;/s&gt; markers are counted like words). Counting runs in
+  * two parallel phases:
+  *   1. workers take blocks of sentences from a shared cursor and count into their own
+  *      LongIntMaps, already split into as many partitions as there are threads by the
+  *      hash of the key;
+  *   2. partition p of every worker is merged into partition p of the result, one task
+  *      per partition, so the merge needs no locks either.
+  * The counts are integers, so the result does not depend on the number of threads. After
+  * construction the counter is read-only and may be shared.
+  */
+public class NgramCounter {
+
+  private static final int BLOCK = 1024; // sentences a worker takes at a time
+
+  protected int order;
+  protected int bits;               // bits per word id in a packed key
+  protected int partitions;
+  protected LongIntMap[][] counts;  // counts[n - 1][partition]
+  protected long tokens;
+  protected int vocabularySize;
+
+  public NgramCounter(CompactCorpus corpus, int order) {
+    this(corpus, order, Runtime.getRuntime().availableProcessors());
+  }
+
+  public NgramCounter(CompactCorpus corpus, int order, int threads) {
+    this.order = order;
+    this.vocabularySize = corpus.vocabulary().size();
+    this.tokens = corpus.tokens();
+    this.bits = Math.max(1, 64 - Long.numberOfLeadingZeros(vocabularySize));
+    if(bits * order > 64) {
+      throw new IllegalArgumentException(String.format(
+          "%d-grams over %d words do not fit in 64 bits", order, vocabularySize));
+    }
+    this.partitions = Math.max(1, threads);
+    if(threads <= 1) {
+      counts = countSentences(corpus, new AtomicInteger());
+    } else {
+      countInParallel(corpus, threads);
+    }
+  }
+
+  // phase 1 for one worker: count blocks of sentences until none are left
+  private LongIntMap[][] countSentences(CompactCorpus corpus, AtomicInteger cursor) {
+    LongIntMap[][] local = new LongIntMap[order][partitions];
+    for(int n = 0; n < order; n++) {
+      for(int p = 0; p < partitions; p++) {
+        local[n][p] = new LongIntMap();
+      }
+    }
+    int[] words = corpus.wordIds();
+    int sentences = corpus.sentences();
+    int first;
+    while((first = cursor.getAndAdd(BLOCK)) < sentences) {
+      int last = Math.min(sentences, first + BLOCK);
+      for(int s = first; s < last; s++) {
+        int start = corpus.start(s);
+        int end = corpus.end(s);
+        for(int i = start; i < end; i++) {
+          long key = 0;
+          for(int n = 1; n <= order && i - n + 1 >= start; n++) {
+            // extend the (n-1)-gram ending at i to the left
+            key |= (long) words[i - n + 1] << (bits * (n - 1));
+            local[n - 1][partition(key)].increment(key);
+          }
+        }
+      }
+    }
+    return local;
+  }
+
+  private void countInParallel(final CompactCorpus corpus, int threads) {
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    try {
+      final AtomicInteger cursor = new AtomicInteger();
+      List<Future<LongIntMap[][]>> workers = new ArrayList<Future<LongIntMap[][]>>();
+      for(int t = 0; t < threads; t++) {
+        workers.add(pool.submit(new Callable<LongIntMap[][]>() {
+          public LongIntMap[][] call() {
+            return countSentences(corpus, cursor);
+          }
+        }));
+      }
+      final List<LongIntMap[][]> shards = new ArrayList<LongIntMap[][]>();
+      for(Future<LongIntMap[][]> worker : workers) {
+        shards.add(worker.get());
+      }
+
+      counts = new LongIntMap[order][partitions];
+      List<Future<?>> merges = new ArrayList<Future<?>>();
+      for(int n = 0; n < order; n++) {
+        for(int p = 0; p < partitions; p++) {
+          final int fn = n;
+          final int fp = p;
+          merges.add(pool.submit(new Runnable() {
+            public void run() {
+              // merge into the largest shard's map rather than copying it
+              LongIntMap largest = shards.get(0)[fn][fp];
+              for(LongIntMap[][] shard : shards) {
+                if(shard[fn][fp].size() > largest.size()) {
+                  largest = shard[fn][fp];
+                }
+              }
+              for(LongIntMap[][] shard : shards) {
+                if(shard[fn][fp] != largest) {
+                  largest.addAll(shard[fn][fp]);
+                  shard[fn][fp] = null;
+                }
+              }
+              counts[fn][fp] = largest;
+            }
+          }));
+        }
+      }
+      for(Future<?> merge : merges) {
+        merge.get();
+      }
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while counting n-grams", e);
+    } catch(ExecutionException e) {
+      throw new RuntimeException("Error counting n-grams", e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  // from the high bits of the hash; the maps index their slots with the low ones
+  private int partition(long key) {
+    return (int) (((LongIntMap.hash(key) & 0xffffffffL) * partitions) >>> 32);
+  }
+
+  public int getOrder() {
+    return order;
+  }
+
+  /** Returns the number of tokens counted, sentence markers included. */
+  public long tokens() {
+    return tokens;
+  }
+
+  /** Returns the key of the n-gram ids[start .. start + n). */
+  public long key(int[] ids, int start, int n) {
+    long key = 0;
+    for(int k = 0; k < n; k++) {
+      key |= (long) ids[start + k] << (bits * (n - 1 - k));
+    }
+    return key;
+  }
+
+  public long key(int w1, int w2) {
+    return ((long) w1 << bits) | w2;
+  }
+
+  /** Returns word k (0 is the first) of the n-gram with the given key. */
+  public int word(long key, int k, int n) {
+    return (int) ((key >>> (bits * (n - 1 - k))) & ((1L << bits) - 1));
+  }
+
+  /** Returns the count of the n-gram with the given key. */
+  public int count(long key, int n) {
+    return counts[n - 1][partition(key)].get(key);
+  }
+
+  /** Returns the count of word w; ids &lt; 0 (unknown words) have count 0. */
+  public int count(int w) {
+    return w < 0 ? 0 : count((long) w, 1);
+  }
+
+  public int count(int w1, int w2) {
+    return w1 < 0 || w2 < 0 ? 0 : count(key(w1, w2), 2);
+  }
+
+  /** Returns the number of distinct n-grams. */
+  public int distinct(int n) {
+    int size = 0;
+    for(LongIntMap map : counts[n - 1]) {
+      size += map.size();
+    }
+    return size;
+  }
+
+  /** Returns the maps holding the n-gram counts, one per partition, for iteration. */
+  public LongIntMap[] counts(int n) {
+    return counts[n - 1];
+  }
+
+  /** Times counting bigrams of a million sentences resampled from the training corpus,
+    * for 1, 2, 4, ... threads up to the number of processors, and checks that every run
+    * gives the same counts.
+    *
+    * usage: NgramCounter [sentences [max threads]]
+    */
+  public static void main(String[] args) {
+    int sentences = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+    CompactCorpus train = new HolbrookCorpus("../data/holbrook-tagged-train.dat").compact();
+    CompactCorpus large = CompactCorpus.resample(train, sentences, new Random(42));
+    System.out.println(String.format("%d sentences, %d tokens, %d processors",
+        large.sentences(), large.tokens(), Runtime.getRuntime().availableProcessors()));
+    long single = 0;
+    NgramCounter reference = null;
+    for(int threads = 1; threads <= maxThreads; threads *= 2) {
+      long best = Long.MAX_VALUE;
+      NgramCounter counter = null;
+      for(int round = 0; round < 3; round++) {
+        long start = System.nanoTime();
+        counter = new NgramCounter(large, 2, threads);
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      if(threads == 1) {
+        single = best;
+        reference = counter;
+      }
+      System.out.println(String.format("%2d threads: %d ms, speedup %.2f (%d unigrams, %d bigrams) %s",
+          threads, best / 1000000, (double) single / best, counter.distinct(1), counter.distinct(2),
+          sameCounts(reference, counter) ? "PASS" : "*FAIL*"));
+    }
+  }
+
+  // true if b has every n-gram of a with the same count, and as many n-grams
+  private static boolean sameCounts(NgramCounter a, NgramCounter b) {
+    for(int n = 1; n <= a.order; n++) {
+      if(a.distinct(n) != b.distinct(n)) {
+        return false;
+      }
+      for(LongIntMap map : a.counts(n)) {
+        for(int slot = 0; slot < map.capacity(); slot++) {
+          if(map.isUsed(slot) && b.count(map.keyAt(slot), n) != map.valueAt(slot)) {
+            return false;
+          }
+        }
+      }
+    }
+    return true;
+  }
+}
@@ -0,0 +1,403 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+
+/** An immutable set of words with a minimal perfect hash: the n words get the ids 0 .. n-1,
+  * and looking a word up costs one hash, two array reads and one comparison.
+  *
+  * Words are hashed with a polynomial rolling hash, h(w) = w[0] B^(n-1) + ... + w[n-1]
+  * (mod 2^64) for an odd multiplier B, so that the hash of a single edit of a word can be
+  * derived from the prefix hashes of the word in constant time. The Probe methods below test every deletion,
+  * insertion, substitution and transposition of a word this way; no String is built
+  * unless the edited form is in the vocabulary, in which case the stored word is returned.
+  *
+  * The perfect hash follows hash-and-displace (CHD): keys are split into buckets of about
+  * three, and buckets, largest first, search for a seed that sends all their keys to free
+  * slots. Buckets of one key just take the next free slot. Every slot keeps the full 64 bit
+  * hash of its word, so misses are almost always rejected without touching the word. Two
+  * words with the same 64 bit hash could never be told apart, so if the vocabulary has
+  * such a pair, the whole table is rebuilt with another multiplier.
+  */
+public class PerfectHashVocabulary {
+
+  private static final long B = 0x100000001b3L; // first multiplier of the rolling hash
+  private static final int KEYS_PER_BUCKET = 3;
+
+  protected long multiplier;   // B of the rolling hash, odd
+  protected String[] words;    // by id
+  protected long[] hashes;     // rolling hash of each word, by id
+  protected int[] seeds;       // per bucket: >= 0 a seed, < 0 the slot -seed - 1 of its only key
+
+  public PerfectHashVocabulary(Collection<String> vocabulary) {
+    this(vocabulary, B);
+  }
+
+  // tries multiplier first; odd multipliers other than B are only for testing rebuilds
+  PerfectHashVocabulary(Collection<String> vocabulary, long multiplier) {
+    List<String> keys = new ArrayList<String>(new LinkedHashSet<String>(vocabulary));
+    this.multiplier = multiplier;
+    while(!build(keys)) {
+      this.multiplier = mix(this.multiplier) | 1L;
+    }
+  }
+
+  // builds the table for the distinct keys with the current multiplier; false if two
+  // keys have the same hash
+  private boolean build(List<String> keys) {
+    int n = keys.size();
+    words = new String[n];
+    hashes = new long[n];
+    seeds = new int[Math.max(1, (n + KEYS_PER_BUCKET - 1) / KEYS_PER_BUCKET)];
+    if(n == 0) {
+      return true;
+    }
+
+    final List<List<Integer>> buckets = new ArrayList<List<Integer>>(seeds.length);
+    for(int b = 0; b < seeds.length; b++) {
+      buckets.add(new ArrayList<Integer>());
+    }
+    long[] keyHashes = new long[n];
+    for(int k = 0; k < n; k++) {
+      keyHashes[k] = hash(keys.get(k));
+      buckets.get(bucket(keyHashes[k])).add(k);
+    }
+    Integer[] order = new Integer[seeds.length];
+    for(int b = 0; b < order.length; b++) {
+      order[b] = b;
+    }
+    Arrays.sort(order, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return buckets.get(b).size() - buckets.get(a).size();
+      }
+    });
+
+    boolean[] taken = new boolean[n];
+    int[] slots = new int[KEYS_PER_BUCKET * 8];
+    int nextFree = 0;
+    for(int b : order) {
+      List<Integer> bucket = buckets.get(b);
+      if(bucket.size() == 0) {
+        continue;
+      }
+      if(bucket.size() == 1) {
+        while(taken[nextFree]) {
+          nextFree++;
+        }
+        seeds[b] = -nextFree - 1;
+        place(keys.get(bucket.get(0)), keyHashes[bucket.get(0)], nextFree, taken);
+        continue;
+      }
+      if(slots.length < bucket.size()) {
+        slots = new int[bucket.size()];
+      }
+      // two words with the same 64 bit hash can never be separated
+      for(int j = 0; j < bucket.size(); j++) {
+        for(int i = 0; i < j; i++) {
+          if(keyHashes[bucket.get(i)] == keyHashes[bucket.get(j)]) {
+            return false;
+          }
+        }
+      }
+      int seed = 0;
+      while(!fits(bucket, keyHashes, seed, taken, slots)) {
+        seed++;
+      }
+      seeds[b] = seed;
+      for(int j = 0; j < bucket.size(); j++) {
+        place(keys.get(bucket.get(j)), keyHashes[bucket.get(j)], slots[j], taken);
+      }
+    }
+    return true;
+  }
+
+  // true if every key of bucket lands on a distinct free slot with seed; the slots go to slots
+  private boolean fits(List<Integer> bucket, long[] keyHashes, int seed, boolean[] taken, int[] slots) {
+    for(int j = 0; j < bucket.size(); j++) {
+      int slot = slot(keyHashes[bucket.get(j)], seed);
+      if(taken[slot]) {
+        return false;
+      }
+      for(int i = 0; i < j; i++) {
+        if(slots[i] == slot) {
+          return false;
+        }
+      }
+      slots[j] = slot;
+    }
+    return true;
+  }
+
+  private void place(String word, long hash, int slot, boolean[] taken) {
+    taken[slot] = true;
+    words[slot] = word;
+    hashes[slot] = hash;
+  }
+
+  private int bucket(long hash) {
+    return (int) ((mix(hash) >>> 1) % seeds.length);
+  }
+
+  private int slot(long hash, int seed) {
+    return (int) ((mix(hash ^ (seed * 0x9e3779b97f4a7c15L)) >>> 1) % words.length);
+  }
+
+  // the MurmurHash3 finalizer; spreads the rolling hash, which is weak in its low bits
+  private static long mix(long h) {
+    h ^= h >>> 33;
+    h *= 0xff51afd7ed558ccdL;
+    h ^= h >>> 33;
+    h *= 0xc4ceb9fe1a85ec53L;
+    h ^= h >>> 33;
+    return h;
+  }
+
+  /** The rolling hash of word. */
+  public long hash(CharSequence word) {
+    long h = 0;
+    for(int i = 0; i < word.length(); i++) {
+      h = h * multiplier + word.charAt(i);
+    }
+    return h;
+  }
+
+  public int size() {
+    return words.length;
+  }
+
+  public String word(int id) {
+    return words[id];
+  }
+
+  /** Returns the id of word, or -1 if it is not in the vocabulary. */
+  public int id(CharSequence word) {
+    int id = candidate(hash(word));
+    if(id >= 0 && words[id].contentEquals(word)) {
+      return id;
+    }
+    return -1;
+  }
+
+  public boolean contains(CharSequence word) {
+    return id(word) >= 0;
+  }
+
+  /** All words, in id order. */
+  public List<String> words() {
+    return Collections.unmodifiableList(Arrays.asList(words));
+  }
+
+  // the only id that may hold a word with this hash, or -1
+  private int candidate(long hash) {
+    if(words.length == 0) {
+      return -1;
+    }
+    int seed = seeds[bucket(hash)];
+    int id = seed < 0 ? -seed - 1 : slot(hash, seed);
+    return hashes[id] == hash ? id : -1;
+  }
+
+  /** Returns a probe for the single edits of word. */
+  public Probe probe(CharSequence word) {
+    Probe probe = new Probe();
+    probe.reset(word);
+    return probe;
+  }
+
+  /** The prefix hashes of one word, for testing its single edits against the vocabulary.
+    * A probe is reusable (see reset()) but not thread-safe. Every method returns the id of
+    * the edited word, or -1 if it is not in the vocabulary.
+    */
+  public class Probe {
+    private char[] chars = new char[16];
+    private long[] prefix = new long[17]; // prefix[i] is the hash of the first i chars
+    private long[] power = new long[18];  // power[i] is multiplier^i
+    private int n;
+
+    /** Switches the probe to word. */
+    public void reset(CharSequence word) {
+      n = word.length();
+      if(chars.length < n) {
+        chars = new char[2 * n];
+        prefix = new long[2 * n + 1];
+        power = new long[2 * n + 2];
+      }
+      power[0] = 1;
+      prefix[0] = 0;
+      for(int i = 0; i < n; i++) {
+        chars[i] = word.charAt(i);
+        prefix[i + 1] = prefix[i] * multiplier + chars[i];
+        power[i + 1] = power[i] * multiplier;
+      }
+      power[n + 1] = power[n] * multiplier;
+    }
+
+    public int length() {
+      return n;
+    }
+
+    /** The vocabulary this probe looks edits up in. */
+    public PerfectHashVocabulary vocabulary() {
+      return PerfectHashVocabulary.this;
+    }
+
+    // hash of chars[j .. n)
+    private long suffix(int j) {
+      return prefix[n] - prefix[j] * power[n - j];
+    }
+
+    /** The word without its character at i. */
+    public int deletion(int i) {
+      int id = candidate(prefix[i] * power[n - i - 1] + suffix(i + 1));
+      if(id < 0 || words[id].length() != n - 1) {
+        return -1;
+      }
+      String w = words[id];
+      for(int j = 0; j < n - 1; j++) {
+        if(w.charAt(j) != chars[j < i ? j : j + 1]) {
+          return -1;
+        }
+      }
+      return id;
+    }
+
+    /** The word with c inserted before position i (0 &lt;= i &lt;= length). */
+    public int insertion(int i, char c) {
+      int id = candidate((prefix[i] * multiplier + c) * power[n - i] + suffix(i));
+      if(id < 0 || words[id].length() != n + 1) {
+        return -1;
+      }
+      String w = words[id];
+      for(int j = 0; j <= n; j++) {
+        char expected = j < i ? chars[j] : j == i ? c : chars[j - 1];
+        if(w.charAt(j) != expected) {
+          return -1;
+        }
+      }
+      return id;
+    }
+
+    /** The word with its character at i replaced by c. */
+    public int substitution(int i, char c) {
+      int id = candidate(prefix[n] + (c - chars[i]) * power[n - 1 - i]);
+      if(id < 0 || words[id].length() != n) {
+        return -1;
+      }
+      String w = words[id];
+      for(int j = 0; j < n; j++) {
+        if(w.charAt(j) != (j == i ? c : chars[j])) {
+          return -1;
+        }
+      }
+      return id;
+    }
+
+    /** The word with its characters at i and i + 1 swapped. */
+    public int transposition(int i) {
+      long delta = chars[i + 1] - chars[i];
+      int id = candidate(prefix[n] + delta * power[n - 1 - i] - delta * power[n - 2 - i]);
+      if(id < 0 || words[id].length() != n) {
+        return -1;
+      }
+      String w = words[id];
+      for(int j = 0; j < n; j++) {
+        char expected = j == i ? chars[i + 1] : j == i + 1 ? chars[i] : chars[j];
+        if(w.charAt(j) != expected) {
+          return -1;
+        }
+      }
+      return id;
+    }
+  }
+
+  /** Checks lookups and every kind of edit against a HashSet, and times both. */
+  public static void main(String[] args) {
+    HolbrookCorpus corpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    java.util.Set<String> set = new java.util.HashSet<String>();
+    for(Sentence sentence : corpus.getData()) {
+      for(Datum datum : sentence) {
+        set.add(datum.getWord());
+      }
+    }
+    long start = System.nanoTime();
+    PerfectHashVocabulary vocabulary = new PerfectHashVocabulary(set);
+    System.out.println(String.format("%d words, %d buckets, built in %d ms",
+        vocabulary.size(), vocabulary.seeds.length, (System.nanoTime() - start) / 1000000));
+
+    boolean pass = true;
+    for(int id = 0; id < vocabulary.size(); id++) {
+      pass &= vocabulary.id(vocabulary.word(id)) == id;
+    }
+    Random random = new Random(42);
+    List<String> queries = new ArrayList<String>(set);
+    for(int i = 0; i < 2000; i++) {
+      queries.add(SpellingBenchmark.misspell(queries.get(random.nextInt(set.size())) + "xy", random));
+    }
+    long hits = 0;
+    for(String query : queries) {
+      pass &= vocabulary.contains(query) == set.contains(query);
+      Probe probe = vocabulary.probe(query);
+      int n = query.length();
+      for(int i = 0; i <= n; i++) {
+        String a = query.substring(0, i);
+        String b = query.substring(i);
+        for(char c = 'a'; c <= 'z'; c++) {
+          pass &= (probe.insertion(i, c) >= 0) == set.contains(a + c + b);
+          if(i < n) {
+            pass &= (probe.substitution(i, c) >= 0) == set.contains(a + c + b.substring(1));
+          }
+        }
+        if(i < n) {
+          int deleted = probe.deletion(i);
+          pass &= (deleted >= 0) == set.contains(a + b.substring(1));
+          hits += deleted >= 0 ? 1 : 0;
+        }
+        if(i < n - 1) {
+          pass &= (probe.transposition(i) >= 0) == set.contains(a + b.charAt(1) + b.charAt(0) + b.substring(2));
+        }
+      }
+    }
+    System.out.println("edits agree with HashSet: " + (pass ? "PASS" : "*FAIL*") + " (" + hits + " deletion hits)");
+
+    // with B = 1 the hash is the sum of the characters, so anagrams collide and force a rebuild
+    List<String> anagrams = Arrays.asList("stop", "pots", "tops", "spot", "opts", "post");
+    PerfectHashVocabulary rebuilt = new PerfectHashVocabulary(anagrams, 1L);
+    pass = rebuilt.multiplier != 1L;
+    for(String word : anagrams) {
+      pass &= rebuilt.contains(word) && rebuilt.probe("x" + word).deletion(0) >= 0;
+    }
+    System.out.println("rebuilt after a hash collision: " + (pass ? "PASS" : "*FAIL*"));
+
+    for(int round = 0; round < 3; round++) {
+      long found = 0;
+      start = System.nanoTime();
+      for(String query : queries) {
+        int n = query.length();
+        for(int i = 0; i < n; i++) {
+          String a = query.substring(0, i);
+          String b = query.substring(i);
+          for(char c = 'a'; c <= 'z'; c++) {
+            found += set.contains(a + c + b.substring(1)) ? 1 : 0;
+          }
+        }
+      }
+      long setTime = System.nanoTime() - start;
+      start = System.nanoTime();
+      for(String query : queries) {
+        Probe probe = vocabulary.probe(query);
+        for(int i = 0; i < query.length(); i++) {
+          for(char c = 'a'; c <= 'z'; c++) {
+            found -= probe.substitution(i, c) >= 0 ? 1 : 0;
+          }
+        }
+      }
+      long probeTime = System.nanoTime() - start;
+      System.out.println(String.format("substitutions: HashSet %d us, rolling hash %d us%s",
+          setTime / 1000, probeTime / 1000, found == 0 ? "" : " *MISMATCH*"));
+    }
+  }
+}
@@ -0,0 +1,257 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** An in-memory copy of a backoff language model with quantized log-probabilities and
+  * backoff weights, for scoring on small heaps.
+  *
+  * Every order keeps its n-grams as one sorted array of packed word-id keys, with the codes
+  * of the log-probability and backoff weight of each n-gram in parallel arrays: one byte per
+  * code for codebooks of up to 8 bits, one char for up to 16 bits. Scoring binary searches
+  * the keys and reads the codebook entry of the code, so no double or Double is kept per
+  * n-gram. The backoff walk is BackoffTableLanguageModel's, shared with BinaryLanguageModel.
+  */
+public class QuantizedLanguageModel extends BackoffTableLanguageModel implements BackoffLanguageModel {
+
+  protected int bits;         // codebook size is 2^bits
+  protected int idBits;       // bits per word id in a packed key
+  protected Vocabulary vocabulary;
+  protected Quantizer probQuantizer;
+  protected Quantizer backoffQuantizer;
+  protected float[] probCodebook;
+  protected float[] backoffCodebook;
+
+  protected long[][] keys;      // keys[k - 1]: sorted packed k-grams (k >= 2)
+  protected byte[][] probBytes; // codes by order and index, when bits <= 8
+  protected byte[][] backoffBytes;
+  protected char[][] probChars; // codes by order and index, when bits > 8
+  protected char[][] backoffChars;
+
+  /** Quantizes lm with codebooks of 2^bits entries, 1 &lt;= bits &lt;= 16. */
+  public QuantizedLanguageModel(BackoffLanguageModel lm, int bits) {
+    if(bits < 1 || bits > 16) {
+      throw new IllegalArgumentException("Codebook bits must be between 1 and 16: " + bits);
+    }
+    this.order = lm.getOrder();
+    this.bits = bits;
+    this.unknownLogProb = lm.getUnknownLogProb();
+    this.defaultBackoff = lm.getDefaultBackoff();
+    List<Map<List<String>, double[]>> ngrams = new ArrayList<Map<List<String>, double[]>>();
+    for(int k = 1; k <= order; k++) {
+      ngrams.add(lm.getNgrams(k));
+    }
+
+    vocabulary = new Vocabulary();
+    for(List<String> unigram : ngrams.get(0).keySet()) {
+      vocabulary.add(unigram.get(0));
+    }
+    idBits = Math.max(1, 64 - Long.numberOfLeadingZeros(vocabulary.size()));
+    if(idBits * order > 64) {
+      throw new IllegalArgumentException(String.format(
+          "%d-grams over %d words do not fit in 64 bits", order, vocabulary.size()));
+    }
+
+    List<Double> probs = new ArrayList<Double>();
+    List<Double> backoffs = new ArrayList<Double>();
+    for(int k = 1; k <= order; k++) {
+      for(double[] values : ngrams.get(k - 1).values()) {
+        probs.add(values[0]);
+        if(k < order) {
+          backoffs.add(values[1]);
+        }
+      }
+    }
+    probQuantizer = new Quantizer(toArray(probs), bits);
+    backoffQuantizer = new Quantizer(toArray(backoffs), bits);
+    probCodebook = probQuantizer.getCenters();
+    backoffCodebook = backoffQuantizer.getCenters();
+
+    keys = new long[order][];
+    probBytes = new byte[order][];
+    backoffBytes = new byte[order][];
+    probChars = new char[order][];
+    backoffChars = new char[order][];
+    for(int k = 1; k <= order; k++) {
+      Map<List<String>, double[]> table = ngrams.get(k - 1);
+      int size = k == 1 ? vocabulary.size() : table.size();
+      long[] packed = new long[size];
+      double[][] values = new double[size][];
+      int i = 0;
+      for(Map.Entry<List<String>, double[]> entry : table.entrySet()) {
+        long key = 0;
+        for(String word : entry.getKey()) {
+          key = (key << idBits) | vocabulary.id(word);
+        }
+        if(k == 1) {
+          values[(int) key] = entry.getValue(); // unigrams are indexed by id
+        } else {
+          packed[i] = key;
+          values[i] = entry.getValue();
+        }
+        i++;
+      }
+      if(k > 1) {
+        Integer[] sorted = sortedIndexes(packed);
+        long[] sortedKeys = new long[size];
+        double[][] sortedValues = new double[size][];
+        for(int j = 0; j < size; j++) {
+          sortedKeys[j] = packed[sorted[j]];
+          sortedValues[j] = values[sorted[j]];
+        }
+        keys[k - 1] = sortedKeys;
+        values = sortedValues;
+      }
+      boolean hasBackoff = k < order;
+      if(bits <= 8) {
+        probBytes[k - 1] = new byte[size];
+        backoffBytes[k - 1] = new byte[hasBackoff ? size : 0];
+      } else {
+        probChars[k - 1] = new char[size];
+        backoffChars[k - 1] = new char[hasBackoff ? size : 0];
+      }
+      for(int j = 0; j < size; j++) {
+        int prob = probQuantizer.encode(values[j][0]);
+        int backoff = hasBackoff ? backoffQuantizer.encode(values[j][1]) : 0;
+        if(bits <= 8) {
+          probBytes[k - 1][j] = (byte) prob;
+          if(hasBackoff) {
+            backoffBytes[k - 1][j] = (byte) backoff;
+          }
+        } else {
+          probChars[k - 1][j] = (char) prob;
+          if(hasBackoff) {
+            backoffChars[k - 1][j] = (char) backoff;
+          }
+        }
+      }
+    }
+  }
+
+  private static double[] toArray(List<Double> values) {
+    double[] result = new double[values.size()];
+    for(int i = 0; i < result.length; i++) {
+      result[i] = values.get(i);
+    }
+    return result;
+  }
+
+  private static Integer[] sortedIndexes(final long[] keys) {
+    Integer[] indexes = new Integer[keys.length];
+    for(int i = 0; i < indexes.length; i++) {
+      indexes[i] = i;
+    }
+    Arrays.sort(indexes, new Comparator<Integer>() {
+      public int compare(Integer a, Integer b) {
+        return keys[a] < keys[b] ? -1 : keys[a] > keys[b] ? 1 : 0;
+      }
+    });
+    return indexes;
+  }
+
+  public int getBits() {
+    return bits;
+  }
+
+  /** Returns the number of bytes held by the n-gram keys and codes. */
+  public long tableBytes() {
+    long bytes = 0;
+    for(int k = 1; k <= order; k++) {
+      if(keys[k - 1] != null) {
+        bytes += 8L * keys[k - 1].length;
+      }
+      if(bits <= 8) {
+        bytes += probBytes[k - 1].length + backoffBytes[k - 1].length;
+      } else {
+        bytes += 2L * (probChars[k - 1].length + backoffChars[k - 1].length);
+      }
+    }
+    return bytes;
+  }
+
+  /** Returns the number of n-grams of all orders. */
+  public long size() {
+    long size = vocabulary.size();
+    for(int k = 2; k <= order; k++) {
+      size += keys[k - 1].length;
+    }
+    return size;
+  }
+
+  private int probCode(int k, int index) {
+    return bits <= 8 ? probBytes[k - 1][index] & 0xff : probChars[k - 1][index];
+  }
+
+  private int backoffCode(int k, int index) {
+    return bits <= 8 ? backoffBytes[k - 1][index] & 0xff : backoffChars[k - 1][index];
+  }
+
+  public int wordId(String word) {
+    return vocabulary.id(word);
+  }
+
+  // index of the k-gram starting at ids[from], -1 if missing
+  protected long lookup(int[] ids, int from, int k) {
+    if(k == 1) {
+      return ids[from];
+    }
+    long key = 0;
+    for(int i = from; i < from + k; i++) {
+      key = (key << idBits) | ids[i];
+    }
+    int index = Arrays.binarySearch(keys[k - 1], key);
+    return index >= 0 ? index : -1;
+  }
+
+  protected double prob(int k, long record) {
+    return probCodebook[probCode(k, (int) record)];
+  }
+
+  protected double backoff(int k, long record) {
+    return backoffCodebook[backoffCode(k, (int) record)];
+  }
+
+  public Map<List<String>, double[]> getNgrams(int k) {
+    Map<List<String>, double[]> ngrams = new HashMap<List<String>, double[]>();
+    int size = k == 1 ? vocabulary.size() : keys[k - 1].length;
+    for(int index = 0; index < size; index++) {
+      List<String> ngram = new ArrayList<String>(k);
+      long key = k == 1 ? index : keys[k - 1][index];
+      for(int i = k - 1; i >= 0; i--) {
+        ngram.add(vocabulary.word((int) ((key >>> (idBits * i)) & ((1L << idBits) - 1))));
+      }
+      double backoff = k < order ? backoffCodebook[backoffCode(k, index)] : 0.0;
+      ngrams.put(ngram, new double[] { probCodebook[probCode(k, index)], backoff });
+    }
+    return ngrams;
+  }
+
+  /** Reports table size and dev accuracy of the Stupid Backoff and Kneser-Ney models,
+    * unquantized and with 16, 8 and 4 bit codebooks.
+    */
+  public static void main(String[] args) {
+    HolbrookCorpus trainingCorpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus devCorpus = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+    BackoffLanguageModel[] models = {
+      new BigramStupidBackoffLanguageModel(trainingCorpus), new KneserNeyLanguageModel(trainingCorpus)
+    };
+    int[] widths = { 16, 8, 4 };
+    for(BackoffLanguageModel lm : models) {
+      long ngrams = 0;
+      for(int k = 1; k <= lm.getOrder(); k++) {
+        ngrams += lm.getNgrams(k).size();
+      }
+      double accuracy = new SpellCorrect(lm, trainingCorpus).evaluate(devCorpus).getAccuracy();
+      System.out.println(String.format("%s: %d n-grams, accuracy %f, %d bytes as two doubles per n-gram",
+          lm.getClass().getName(), ngrams, accuracy, 16 * ngrams));
+      for(int bits : widths) {
+        QuantizedLanguageModel quantized = new QuantizedLanguageModel(lm, bits);
+        double quantizedAccuracy = new SpellCorrect(quantized, trainingCorpus).evaluate(devCorpus).getAccuracy();
+        System.out.println(String.format("  %2d bit codebooks: %d bytes of keys and codes, accuracy %f (%+f)",
+            bits, quantized.tableBytes(), quantizedAccuracy, quantizedAccuracy - accuracy));
+      }
+    }
+  }
+}
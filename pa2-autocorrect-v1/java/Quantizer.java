@@ -0,0 +1,98 @@
+import java.util.Arrays;
+
+/** Maps doubles (log-probabilities, backoff weights) onto a small codebook so they
+  * can be stored in one byte each. The codebook is built by equal-frequency binning
+  * of the training values: each bin is represented by the mean of the values in it.
+  */
+public class Quantizer {
+
+  protected float[] centers; // sorted codebook values
+  protected float[] bounds;  // midpoints between consecutive centers, used for encoding
+
+  /** Builds a codebook with at most 2^bits entries from the given values. */
+  public Quantizer(double[] values, int bits) {
+    int size = 1 << bits;
+    double[] sorted = values.clone();
+    Arrays.sort(sorted);
+    if(sorted.length <= size) {
+      // few enough distinct values: store them exactly.
+      centers = distinct(sorted);
+    } else {
+      centers = new float[size];
+      int n = 0;
+      for(int b = 0; b < size; b++) {
+        int from = (int)((long) sorted.length * b / size);
+        int to = (int)((long) sorted.length * (b + 1) / size);
+        if(to <= from) {
+          continue;
+        }
+        double sum = 0.0;
+        for(int i = from; i < to; i++) {
+          sum += sorted[i];
+        }
+        float center = (float)(sum / (to - from));
+        if(n == 0 || centers[n - 1] != center) {
+          centers[n++] = center;
+        }
+      }
+      centers = Arrays.copyOf(centers, n);
+    }
+    setBounds();
+  }
+
+  /** Wraps an existing codebook, e.g. one read back from a model file. */
+  public Quantizer(float[] centers) {
+    this.centers = centers;
+    setBounds();
+  }
+
+  private static float[] distinct(double[] sorted) {
+    float[] result = new float[sorted.length];
+    int n = 0;
+    for(double v : sorted) {
+      float f = (float) v;
+      if(n == 0 || result[n - 1] != f) {
+        result[n++] = f;
+      }
+    }
+    if(n == 0) {
+      return new float[] { 0.0f };
+    }
+    return Arrays.copyOf(result, n);
+  }
+
+  private void setBounds() {
+    bounds = new float[Math.max(0, centers.length - 1)];
+    for(int i = 0; i < bounds.length; i++) {
+      bounds[i] = (centers[i] + centers[i + 1]) / 2;
+    }
+  }
+
+  /** Returns the code of the codebook entry nearest to value. */
+  public int encode(double value) {
+    int lo = 0;
+    int hi = bounds.length;
+    // first bound greater than value
+    while(lo < hi) {
+      int mid = (lo + hi) >>> 1;
+      if(bounds[mid] <= value) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  public double decode(int code) {
+    return centers[code];
+  }
+
+  public int size() {
+    return centers.length;
+  }
+
+  public float[] getCenters() {
+    return centers;
+  }
+}
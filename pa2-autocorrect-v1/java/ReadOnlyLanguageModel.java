@@ -0,0 +1,10 @@
+import java.util.List;
+// a language model that can score sentences but not be trained, such as a model
+// loaded or converted from a trained one. LanguageModel adds training to it.
+public interface ReadOnlyLanguageModel {
+
+  // language model score (probability) of a given sentence.
+  // usually a log-probability.
+  public double score(List<String> sentence);
+
+}
@@ -1,85 +1,134 @@
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
 
 public class SpellCorrect {
   EditModel editModel;
-  LanguageModel languageModel;
+  ReadOnlyLanguageModel languageModel;
+  CandidateCache candidates; // edit model output per word, shared by all threads
+  EditCandidateGenerator generator; // set by setEditBudget()
 
   public SpellCorrect() {
     HolbrookCorpus corpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
     editModel = new EditModel("../data/count_1edit.txt", corpus);
+    candidates = new CandidateCache(editModel);
     languageModel = null;
   }
 
-  public SpellCorrect(LanguageModel lm, HolbrookCorpus corpus) {
+  public SpellCorrect(ReadOnlyLanguageModel lm, HolbrookCorpus corpus) {
     editModel = new EditModel("../data/count_1edit.txt", corpus);
+    candidates = new CandidateCache(editModel);
     languageModel = lm;
   }
 
+  /** Bounds the candidate generation for each word: edits are tried most likely first and
+    * stop at a fraction mass of their prior counts, or after budgetNanos (&lt;= 0 for no
+    * limit). See EditCandidateGenerator.
+    */
+  void setEditBudget(double mass, long budgetNanos) {
+    if(generator == null) {
+      generator = new EditCandidateGenerator(editModel);
+    }
+    candidates.setBudget(generator, mass, budgetNanos);
+  }
+
   /** corrects a whole corpus, returns a JSON representation of the output. */
   String correctCorpus(HolbrookCorpus corpus, int partId) {
-    StringBuilder sb = new StringBuilder();
-    sb.append(String.format("[[%d]", partId));
+    StringWriter out = new StringWriter();
+    try {
+      correctCorpus(corpus, partId, out);
+    } catch(IOException e) {
+      throw new RuntimeException(e); // StringWriter does not throw
+    }
+    return out.toString();
+  }
+
+  /** corrects a whole corpus, writing the JSON representation sentence by sentence. */
+  void correctCorpus(HolbrookCorpus corpus, int partId, Writer out) throws IOException {
+    out.write("[[");
+    out.write(Integer.toString(partId));
+    out.write("]");
     List<Sentence> data = corpus.getData();
     for(int i = 0; i < data.size(); i++) {
       if(i != 0) {
-        sb.append(",");
+        out.write(",");
       }
-      sb.append("[");
+      out.write("[");
       Sentence sentence = data.get(i);
       List<String> uncorrected = sentence.getErrorSentence();
       List<String> corrected = correctSentence(uncorrected);
       for(int j = 0; j < corrected.size(); j++) {
-        String str = corrected.get(j);
         if(j != 0) {
-          sb.append(",");
+          out.write(",");
         }
-        sb.append(String.format("\"%s\"", str));
+        out.write("\"");
+        out.write(corrected.get(j));
+        out.write("\"");
       }
-      sb.append("]"); // end of sentence
+      out.write("]"); // end of sentence
     }
-    sb.append("]"); // end of corpus
-    return sb.toString();
+    out.write("]"); // end of corpus
   }
 
   List<String> correctSentence(List<String> sentence) {
     if(sentence.isEmpty()) {
       return new ArrayList<String>();
     }
-    int argmax_i = 0;
-    String argmax_w = sentence.get(0);
-    double max = Double.NEGATIVE_INFINITY;
-    double maxlm = Double.NEGATIVE_INFINITY;
-    double maxedit = Double.NEGATIVE_INFINITY;
-
-    // skip first and last tokens.
+    // every single-word edit of the sentence, skipping first and last tokens.
+    List<Integer> positions = new ArrayList<Integer>();
+    List<String> alternatives = new ArrayList<String>();
+    List<Double> editScores = new ArrayList<Double>();
     for(int i = 1; i < sentence.size() - 1; i++) {
-      String word = sentence.get(i);
-      Map<String, Double> editProbs = editModel.editProbabilities(word);
-      for(String alternative : editProbs.keySet()) {
+      CandidateCache.Candidates edits = candidates.get(sentence.get(i));
+      for(int c = 0; c < edits.size(); c++) {
         // skip non-edits:
-        if(alternative.equals(word)) 
+        if(c == edits.self) 
           continue;
-        sentence.set(i, alternative);
-        double lmscore = languageModel.score(sentence);
-        double editscore = Math.log(editProbs.get(alternative));
-        double score = lmscore + editscore;
-        if(score >= max) {
-          max = score;
-          maxlm = lmscore;
-          maxedit = editscore;
-          argmax_i = i;
-          argmax_w = alternative;
-        }
+        positions.add(i);
+        alternatives.add(edits.words[c]);
+        editScores.add(edits.logProbs[c]);
+      }
+    }
+    int[] positionArray = new int[positions.size()];
+    for(int j = 0; j < positionArray.length; j++) {
+      positionArray[j] = positions.get(j);
+    }
+    double[] lmscores = scoreVariants(sentence, positionArray, 
+        alternatives.toArray(new String[alternatives.size()]));
+
+    int argmax_i = 0;
+    String argmax_w = sentence.get(0);
+    double max = Double.NEGATIVE_INFINITY;
+    for(int j = 0; j < lmscores.length; j++) {
+      double score = lmscores[j] + editScores.get(j);
+      if(score >= max) {
+        max = score;
+        argmax_i = positionArray[j];
+        argmax_w = alternatives.get(j);
       }
-      sentence.set(i, word); // restore sentence to original state
     }
     List<String> argmax = new ArrayList<String>(sentence);
     argmax.set(argmax_i, argmax_w);
     return argmax;
   }
 
+  /** Language model scores of sentence with each (position, replacement) applied in turn. */
+  double[] scoreVariants(List<String> sentence, int[] positions, String[] replacements) {
+    if(languageModel instanceof BatchLanguageModel) {
+      return ((BatchLanguageModel) languageModel).scoreVariants(sentence, positions, replacements);
+    }
+    double[] scores = new double[positions.length];
+    List<String> variant = new ArrayList<String>(sentence);
+    for(int j = 0; j < positions.length; j++) {
+      variant.set(positions[j], replacements[j]);
+      scores[j] = languageModel.score(variant);
+      variant.set(positions[j], sentence.get(positions[j])); // restore
+    }
+    return scores;
+  }
+
 
   public SpellingResult evaluate(HolbrookCorpus corpus) {
     int numCorrect = 0;
@@ -135,6 +184,19 @@ public class SpellCorrect {
     SpellingResult sbOutcome = sbSpell.evaluate(devCorpus);
     System.out.println(sbOutcome.toString());
 
+    System.out.println("Kneser-Ney Trigram Language Model: ");
+    KneserNeyLanguageModel knLM = new KneserNeyLanguageModel(trainingCorpus);
+    SpellCorrect knSpell = new SpellCorrect(knLM, trainingCorpus);
+    SpellingResult knOutcome = knSpell.evaluate(devCorpus);
+    System.out.println(knOutcome.toString());
+    System.out.println(knSpell.candidates.toString());
+
+    System.out.println("Kneser-Ney Trigram Language Model, pruned to n-grams seen twice: ");
+    KneserNeyLanguageModel prunedLM = new KneserNeyLanguageModel(trainingCorpus, 3, 2);
+    SpellCorrect prunedSpell = new SpellCorrect(prunedLM, trainingCorpus);
+    SpellingResult prunedOutcome = prunedSpell.evaluate(devCorpus);
+    System.out.println(prunedOutcome.toString());
+
     System.out.println("Custom Language Model: ");
     CustomLanguageModel customLM = new CustomLanguageModel(trainingCorpus);
     SpellCorrect customSpell = new SpellCorrect(customLM, trainingCorpus);
@@ -142,7 +204,30 @@ public class SpellCorrect {
     System.out.println(customOutcome.toString());
   }
 
-  public static void main(String[] args) {
-    SpellCorrect.eval();
+  /** Evaluates a binary model written by -save. The model is mapped, not trained. */
+  public static void evalBinary(String modelPath) throws IOException {
+    HolbrookCorpus trainingCorpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus devCorpus = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+
+    long start = System.currentTimeMillis();
+    BinaryLanguageModel binaryLM = new BinaryLanguageModel(modelPath);
+    System.out.println(String.format("Binary Language Model (%s, mapped in %d ms): ",
+        modelPath, System.currentTimeMillis() - start));
+    SpellCorrect binarySpell = new SpellCorrect(binaryLM, trainingCorpus);
+    SpellingResult binaryOutcome = binarySpell.evaluate(devCorpus);
+    System.out.println(binaryOutcome.toString());
+  }
+
+  // usage: SpellCorrect [-save model.bin [8|16] | -load model.bin]
+  public static void main(String[] args) throws IOException {
+    if((args.length == 2 || args.length == 3) && args[0].equals("-save")) {
+      HolbrookCorpus trainingCorpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+      int bits = args.length == 3 ? Integer.parseInt(args[2]) : 8;
+      BinaryLanguageModel.write(new BigramStupidBackoffLanguageModel(trainingCorpus), args[1], bits);
+    } else if(args.length == 2 && args[0].equals("-load")) {
+      SpellCorrect.evalBinary(args[1]);
+    } else {
+      SpellCorrect.eval();
+    }
   }
 }
@@ -0,0 +1,293 @@
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/** Throughput and allocation benchmarks for the spelling corrector.
+  *
+  * A small harness in the spirit of JMH: every benchmark is warmed up, then run for a fixed
+  * number of timed iterations, and reports operations per second (mean and standard
+  * deviation over the iterations) together with the bytes allocated per operation, read
+  * from the thread allocation counter of the JVM (what JMH's -prof gc reports as
+  * gc.alloc.rate.norm). Results are consumed into a sink so the JIT cannot drop the work.
+  *
+  * Word level benchmarks are parameterized by word length and sentence level ones by
+  * sentence length; inputs come from the Holbrook dev data. Training is measured on the
+  * Holbrook training data and on a generated corpus a hundred times larger.
+  *
+  * usage: SpellingBenchmark [name filter] [milliseconds per iteration]
+  */
+public class SpellingBenchmark {
+
+  /** One benchmarked operation; i counts invocations, to cycle through inputs. */
+  interface Operation {
+    long run(int i);
+  }
+
+  static final int WARMUP_ITERATIONS = 3;
+  static final int ITERATIONS = 5;
+
+  static long sink; // results of every operation end up here
+  static String filter = "";
+  static long iterationNanos = 500L * 1000 * 1000;
+
+  static final int[] WORD_LENGTHS = { 3, 5, 7, 9, 11 };
+  static final int[] SENTENCE_LENGTHS = { 5, 10, 20, 40 };
+
+  // allocated bytes of the current thread, -1 if the JVM does not count them
+  static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if(bean instanceof com.sun.management.ThreadMXBean) {
+      com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean) bean;
+      if(sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+        return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+      }
+    }
+    return -1;
+  }
+
+  // runs op for one iteration; returns {operations, nanoseconds, allocated bytes}
+  static long[] iteration(Operation op, int first) {
+    long bytes = allocatedBytes();
+    long start = System.nanoTime();
+    long elapsed;
+    int n = 0;
+    do {
+      sink += op.run(first + n);
+      n++;
+      elapsed = System.nanoTime() - start;
+    } while(elapsed < iterationNanos);
+    long allocated = allocatedBytes() - bytes;
+    return new long[] { n, elapsed, bytes < 0 ? -1 : allocated };
+  }
+
+  static void measure(String name, String param, Operation op) {
+    if(!(name + " " + param).contains(filter)) {
+      return;
+    }
+    int invocations = 0;
+    for(int w = 0; w < WARMUP_ITERATIONS; w++) {
+      invocations += iteration(op, invocations)[0];
+    }
+    double[] scores = new double[ITERATIONS];
+    long operations = 0;
+    long bytes = 0;
+    for(int it = 0; it < ITERATIONS; it++) {
+      long[] result = iteration(op, invocations);
+      invocations += result[0];
+      scores[it] = result[0] / (result[1] / 1e9);
+      operations += result[0];
+      bytes = (bytes < 0 || result[2] < 0) ? -1 : bytes + result[2];
+    }
+    double mean = 0.0;
+    for(double score : scores) {
+      mean += score / ITERATIONS;
+    }
+    double variance = 0.0;
+    for(double score : scores) {
+      variance += (score - mean) * (score - mean) / (ITERATIONS - 1);
+    }
+    System.out.println(String.format("%-36s %-14s %14.1f +- %10.1f ops/s %14s B/op",
+        name, param, mean, Math.sqrt(variance),
+        bytes < 0 ? "n/a" : String.format("%.1f", (double) bytes / operations)));
+  }
+
+  /** Holbrook format text of n random sentences drawn from the word frequencies of
+    * corpus, with about one word in twenty replaced by a one-edit misspelling.
+    */
+  static String generateCorpus(HolbrookCorpus corpus, int n, Random random) {
+    List<String> tokens = new ArrayList<String>();
+    for(Sentence sentence : corpus.getData()) {
+      for(int i = 1; i < sentence.size() - 1; i++) {
+        tokens.add(sentence.get(i).getWord());
+      }
+    }
+    StringBuilder sb = new StringBuilder();
+    for(int s = 0; s < n; s++) {
+      int length = 3 + random.nextInt(25);
+      for(int i = 0; i < length; i++) {
+        String word = tokens.get(random.nextInt(tokens.size()));
+        if(random.nextInt(20) == 0 && word.length() > 2 && word.indexOf(' ') < 0) {
+          sb.append("<ERR targ=").append(word).append("> ").append(misspell(word, random)).append(" </ERR> ");
+        } else {
+          sb.append(word).append(' ');
+        }
+      }
+      sb.append(".\n");
+    }
+    return sb.toString();
+  }
+
+  // one random deletion, insertion, substitution or transposition
+  static String misspell(String word, Random random) {
+    int i = random.nextInt(word.length() - 1);
+    char c = (char) ('a' + random.nextInt(26));
+    switch(random.nextInt(4)) {
+      case 0:
+        return word.substring(0, i) + word.substring(i + 1);
+      case 1:
+        return word.substring(0, i) + c + word.substring(i);
+      case 2:
+        return word.substring(0, i) + c + word.substring(i + 1);
+      default:
+        return word.substring(0, i) + word.charAt(i + 1) + word.charAt(i) + word.substring(i + 2);
+    }
+  }
+
+  // distinct words of the given length of the dev test sentences, in order of first occurrence
+  static String[] wordsOfLength(HolbrookCorpus dev, int length) {
+    Set<String> words = new LinkedHashSet<String>();
+    for(Sentence sentence : dev.generateTestCases()) {
+      for(String word : sentence.getErrorSentence()) {
+        if(word.length() == length && word.matches("[a-z]+")) {
+          words.add(word);
+        }
+      }
+    }
+    return words.toArray(new String[words.size()]);
+  }
+
+  // consecutive windows of the dev test sentences, each with length words between <s> and </s>
+  static List<List<String>> sentencesOfLength(HolbrookCorpus dev, int length) {
+    List<String> stream = new ArrayList<String>();
+    for(Sentence sentence : dev.generateTestCases()) {
+      List<String> words = sentence.getErrorSentence();
+      stream.addAll(words.subList(1, words.size() - 1));
+    }
+    List<List<String>> sentences = new ArrayList<List<String>>();
+    for(int start = 0; start + length <= stream.size() && sentences.size() < 200; start += length) {
+      List<String> sentence = new ArrayList<String>(length + 2);
+      sentence.add("<s>");
+      sentence.addAll(stream.subList(start, start + length));
+      sentence.add("</s>");
+      sentences.add(sentence);
+    }
+    return sentences;
+  }
+
+  static final String[] LANGUAGE_MODELS = {
+    "Uniform", "LaplaceUnigram", "LaplaceBigram", "StupidBackoff", "KneserNey", "Custom"
+  };
+
+  // a new language model trained on corpus; models add to their counts on train(), so
+  // every training run starts from a fresh one
+  static LanguageModel newLanguageModel(String name, HolbrookCorpus corpus) {
+    if(name.equals("Uniform")) {
+      return new UniformLanguageModel(corpus);
+    } else if(name.equals("LaplaceUnigram")) {
+      return new LaplaceUnigramLanguageModel(corpus);
+    } else if(name.equals("LaplaceBigram")) {
+      return new LaplaceBigramLanguageModel(corpus);
+    } else if(name.equals("StupidBackoff")) {
+      return new BigramStupidBackoffLanguageModel(corpus);
+    } else if(name.equals("KneserNey")) {
+      return new KneserNeyLanguageModel(corpus);
+    } else if(name.equals("Custom")) {
+      return new CustomLanguageModel(corpus);
+    }
+    throw new IllegalArgumentException("Unknown language model: " + name);
+  }
+
+  public static void main(String[] args) {
+    if(args.length > 0) {
+      filter = args[0];
+    }
+    if(args.length > 1) {
+      iterationNanos = Long.parseLong(args[1]) * 1000 * 1000;
+    }
+    final HolbrookCorpus train = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    HolbrookCorpus dev = new HolbrookCorpus("../data/holbrook-tagged-dev.dat");
+    final HolbrookCorpus large = new HolbrookCorpus();
+    large.slurpString(generateCorpus(train, 100 * train.getData().size(), new Random(42)));
+    final EditModel editModel = new EditModel("../data/count_1edit.txt", train);
+    if(allocatedBytes() < 0) {
+      System.out.println("[SpellingBenchmark] this JVM does not count allocated bytes");
+    }
+
+    for(int length : WORD_LENGTHS) {
+      final String[] words = wordsOfLength(dev, length);
+      if(words.length == 0) {
+        continue;
+      }
+      final String[] others = new String[words.length];
+      Random random = new Random(length);
+      for(int i = 0; i < words.length; i++) {
+        others[i] = misspell(words[i], random);
+      }
+      String param = "wordLength=" + length;
+      measure("EditModel.editProbabilities", param, new Operation() {
+        public long run(int i) {
+          return editModel.editProbabilities(words[i % words.length]).size();
+        }
+      });
+      measure("EditDistance.editDistance", param, new Operation() {
+        public long run(int i) {
+          int j = i % words.length;
+          return EditDistance.editDistance(words[j], others[j], true);
+        }
+      });
+      measure("Levenshtein.damlev", param, new Operation() {
+        public long run(int i) {
+          int j = i % words.length;
+          return Levenshtein.damlev(words[j], others[j]);
+        }
+      });
+      measure("Levenshtein.damlevlim", param, new Operation() {
+        public long run(int i) {
+          int j = i % words.length;
+          return Levenshtein.damlevlim(words[j], others[j], 2);
+        }
+      });
+    }
+
+    Map<String, LanguageModel> models = new LinkedHashMap<String, LanguageModel>();
+    for(final String name : LANGUAGE_MODELS) {
+      measure(name + ".train", "corpus=train", new Operation() {
+        public long run(int i) {
+          return newLanguageModel(name, train).hashCode();
+        }
+      });
+      measure(name + ".train", "corpus=generated", new Operation() {
+        public long run(int i) {
+          return newLanguageModel(name, large).hashCode();
+        }
+      });
+      models.put(name, newLanguageModel(name, train));
+    }
+
+    final SpellCorrect speller = new SpellCorrect(models.get("KneserNey"), train);
+    for(int length : SENTENCE_LENGTHS) {
+      final List<List<String>> sentences = sentencesOfLength(dev, length);
+      if(sentences.isEmpty()) {
+        continue;
+      }
+      String param = "sentenceLength=" + length;
+      for(final Map.Entry<String, LanguageModel> model : models.entrySet()) {
+        measure(model.getKey() + ".score", param, new Operation() {
+          public long run(int i) {
+            return (long) model.getValue().score(sentences.get(i % sentences.size()));
+          }
+        });
+      }
+      // with the candidate cache emptied before every sentence, then with it warm: after
+      // the warmup iterations every word's edits are cached, so the second one measures
+      // language model scoring alone
+      measure("SpellCorrect.correctSentence", param, new Operation() {
+        public long run(int i) {
+          speller.candidates.clear();
+          return speller.correctSentence(sentences.get(i % sentences.size())).size();
+        }
+      });
+      measure("SpellCorrect.correctSentence.cached", param, new Operation() {
+        public long run(int i) {
+          return speller.correctSentence(sentences.get(i % sentences.size())).size();
+        }
+      });
+    }
+    System.out.println("[SpellingBenchmark] sink " + (sink & 1));
+  }
+}
@@ -0,0 +1,17 @@
+import java.util.List;
+// a language model that can be queried one word at a time, left to right, from a
+// fixed-size window of word ids. decoders keep the window as their state, so extending
+// a hypothesis by a word costs one lookup instead of rescoring the sentence.
+public interface StatefulLanguageModel extends ReadOnlyLanguageModel {
+
+  // number of words in a window: the predicted word plus its context.
+  public int getOrder();
+
+  // id of word, -1 if it is not in the vocabulary.
+  public int wordId(String word);
+
+  // log p(window[last] | window[0] .. window[last - 1]). ids below zero stand for
+  // unknown words or positions before the start of the sentence.
+  public double logProb(int[] window);
+
+}
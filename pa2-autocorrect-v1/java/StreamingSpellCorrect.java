@@ -0,0 +1,142 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/** Corrects plain text of any size, one line (sentence) at a time.
+  *
+  * Lines are read and tokenized incrementally, corrected on a fixed pool of worker
+  * threads and written out in input order as soon as they are done. At most a fixed
+  * number of sentences are in flight, so memory use does not depend on the input size.
+  */
+public class StreamingSpellCorrect {
+
+  protected SpellCorrect speller;
+  protected int threads;
+  protected int maxPending; // sentences read but not yet written
+
+  public StreamingSpellCorrect(SpellCorrect speller, int threads) {
+    this.speller = speller;
+    this.threads = threads;
+    this.maxPending = 4 * threads;
+  }
+
+  /** Corrects every line of in, writing one corrected line per input line to out.
+    * Returns the number of lines processed.
+    */
+  public long correct(Reader in, Writer out) throws IOException {
+    BufferedReader reader = new BufferedReader(in, 1 << 16);
+    ExecutorService pool = Executors.newFixedThreadPool(threads);
+    LinkedList<Future<List<String>>> pending = new LinkedList<Future<List<String>>>();
+    long lines = 0;
+    try {
+      String line;
+      while((line = reader.readLine()) != null) {
+        final List<String> sentence = tokenize(line);
+        pending.add(pool.submit(new Callable<List<String>>() {
+          public List<String> call() {
+            return sentence.size() > 2 ? speller.correctSentence(sentence) : sentence;
+          }
+        }));
+        lines++;
+        while(pending.size() >= maxPending) {
+          write(pending.removeFirst(), out);
+        }
+      }
+      while(!pending.isEmpty()) {
+        write(pending.removeFirst(), out);
+      }
+      out.flush();
+    } finally {
+      pool.shutdownNow();
+    }
+    return lines;
+  }
+
+  // waits for one sentence and writes it without the <s> and </s> markers
+  private void write(Future<List<String>> result, Writer out) throws IOException {
+    List<String> sentence;
+    try {
+      sentence = result.get();
+    } catch(InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while correcting", e);
+    } catch(ExecutionException e) {
+      throw new IOException("Error correcting sentence", e.getCause());
+    }
+    for(int i = 1; i < sentence.size() - 1; i++) {
+      if(i != 1) {
+        out.write(' ');
+      }
+      out.write(sentence.get(i));
+    }
+    out.write('\n');
+  }
+
+  /** Lowercases line, drops the punctuation HolbrookCorpus drops and splits it on
+    * whitespace, in one pass. The result starts with &lt;s&gt; and ends with &lt;/s&gt;.
+    *
+    * Unlike HolbrookCorpus.processLine, which splits on single spaces, any run of
+    * whitespace (tabs included) separates two tokens, so no empty tokens are made. The
+    * two agree on text with single spaces between words. An empty line gives just the
+    * markers, so the output keeps one line per input line.
+    */
+  public static List<String> tokenize(String line) {
+    List<String> tokens = new ArrayList<String>();
+    tokens.add("<s>");
+    StringBuilder token = new StringBuilder();
+    for(int i = 0; i < line.length(); i++) {
+      char c = line.charAt(i);
+      switch(c) {
+        case '"': case ',': case '.': case '\'': case '!': case ':': case ';':
+          break;
+        default:
+          if(Character.isWhitespace(c)) {
+            if(token.length() > 0) {
+              tokens.add(token.toString());
+              token.setLength(0);
+            }
+          } else {
+            token.append(Character.toLowerCase(c));
+          }
+      }
+    }
+    if(token.length() > 0) {
+      tokens.add(token.toString());
+    }
+    tokens.add("</s>");
+    return tokens;
+  }
+
+  // usage: StreamingSpellCorrect [input [output]], defaulting to stdin and stdout.
+  public static void main(String[] args) throws IOException {
+    HolbrookCorpus trainingCorpus = new HolbrookCorpus("../data/holbrook-tagged-train.dat");
+    SpellCorrect speller = new SpellCorrect(new KneserNeyLanguageModel(trainingCorpus), trainingCorpus);
+    int threads = Runtime.getRuntime().availableProcessors();
+
+    InputStream input = args.length > 0 ? new FileInputStream(args[0]) : System.in;
+    OutputStream output = args.length > 1 ? new FileOutputStream(args[1]) : System.out;
+    Writer out = new BufferedWriter(new OutputStreamWriter(output, "UTF-8"), 1 << 16);
+    long start = System.currentTimeMillis();
+    long lines = new StreamingSpellCorrect(speller, threads).correct(new InputStreamReader(input, "UTF-8"), out);
+    out.close();
+    input.close();
+    System.err.println(String.format("[StreamingSpellCorrect] %d lines in %d ms on %d threads",
+        lines, System.currentTimeMillis() - start, threads));
+  }
+}
@@ -23,12 +23,7 @@ public class UniformLanguageModel implements LanguageModel {
     * Compute any counts or other corpus statistics in this function.
     */
   public void train(HolbrookCorpus corpus) {
-    for(Sentence sentence : corpus.getData()) { // iterate over sentences
-      for(Datum datum : sentence) { // iterate over words
-        String word = datum.getWord(); // get the actual word
-        words.add(word);
-      }
-    }
+    words.addAll(corpus.compact().vocabulary().words()); // every distinct word of the corpus
   }
 
 
@@ -0,0 +1,47 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/** Maps words to dense integer ids, in order of first appearance, and back. */
+public class Vocabulary {
+
+  protected Map<String, Integer> ids;
+  protected List<String> words;
+
+  public Vocabulary() {
+    ids = new HashMap<String, Integer>();
+    words = new ArrayList<String>();
+  }
+
+  /** Returns the id of word, assigning the next free one if it is new. */
+  public int add(String word) {
+    Integer id = ids.get(word);
+    if(id == null) {
+      id = words.size();
+      ids.put(word, id);
+      words.add(word);
+    }
+    return id;
+  }
+
+  /** Returns the id of word, -1 if it is not in the vocabulary. */
+  public int id(String word) {
+    Integer id = ids.get(word);
+    return id == null ? -1 : id;
+  }
+
+  public String word(int id) {
+    return words.get(id);
+  }
+
+  /** All words, in id order. */
+  public List<String> words() {
+    return Collections.unmodifiableList(words);
+  }
+
+  public int size() {
+    return words.size();
+  }
+}
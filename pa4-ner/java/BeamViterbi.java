@@ -0,0 +1,241 @@
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * A Viterbi decoder for the same models and data as Viterbi, for decoding a lot of
+ * text with one instance.
+ *
+ * It keeps only two rows of scores, the previous position's and the current one's,
+ * and the backpointers in one flat array, all reused from call to call, so decoding
+ * allocates nothing once the buffers have grown to the longest sequence. The scores
+ * of a datum are summed feature by feature over a contiguous slice of the
+ * feature-major weights, a loop the JIT can vectorize when there are enough labels.
+ *
+ * With a beam of k > 0, only the k best labels of each position are extended to the
+ * next, so the features of the others are never scored. Otherwise, or if k is at least
+ * the number of labels, the result is exactly that of Viterbi.
+ *
+ * An instance is not thread safe: use one per thread.
+ */
+public class BeamViterbi {
+
+	private final Index labelIndex;
+	private final FeatureIndex featureIndex;
+	private final double[] weights; // feature-major, as in LogConditionalObjectiveFunction
+	private final int labels;
+	private int beam = 0;
+
+	private double[] previous;     // best score of each label at the previous position
+	private double[] current;      // ... and at this one
+	private double[] local;        // scores of the datum being extended
+	private boolean[] active;      // labels of the previous position in the beam
+	private int[] backpointers = new int[0]; // position * labels + label
+
+	public BeamViterbi(Index labelIndex, FeatureIndex featureIndex, double[] weights) {
+		this.labelIndex = labelIndex;
+		this.featureIndex = featureIndex;
+		this.weights = weights;
+		this.labels = labelIndex.size();
+		previous = new double[labels];
+		current = new double[labels];
+		local = new double[labels];
+		active = new boolean[labels];
+	}
+
+	/** Extends only the k best labels of each position; 0 extends them all. */
+	public void setBeam(int k) {
+		beam = k;
+	}
+
+	/** Decodes each sequence of data, given the same sequence in the layout of
+	 *  Viterbi.decode(List, List), reusing the buffers. */
+	public void decodeAll(List<List<Datum>> data, List<List<Datum>> dataWithMultiplePrevLabels) {
+		for (int s = 0; s < data.size(); s++) {
+			decode(data.get(s), dataWithMultiplePrevLabels.get(s));
+		}
+	}
+
+	/** Sets the guess labels of data, as Viterbi.decode(List, List) does. */
+	public void decode(List<Datum> data, List<Datum> dataWithMultiplePrevLabels) {
+		int n = data.size();
+		if (backpointers.length < n * labels) {
+			backpointers = new int[Math.max(n * labels, 2 * backpointers.length)];
+		}
+
+		Datum first = compile(data.get(0));
+		scores(first);
+		for (int label = 0; label < labels; label++) {
+			backpointers[label] = first.previousLabelId;
+			previous[label] = local[label];
+		}
+
+		for (int position = 1; position < n; position++) {
+			selectBeam();
+			int i = position * labels - 1;
+			int row = position * labels;
+			boolean firstLabel = true;
+			for (int j = 0; j < labels; j++) {
+				Datum datum = compile(dataWithMultiplePrevLabels.get(i + j));
+				int prevLabel = datum.previousLabelId;
+				if (!active[prevLabel]) {
+					continue;
+				}
+				scores(datum);
+				double prevScore = previous[prevLabel];
+				if (firstLabel) {
+					for (int label = 0; label < labels; label++) {
+						current[label] = local[label] + prevScore;
+						backpointers[row + label] = prevLabel;
+					}
+					firstLabel = false;
+				} else {
+					for (int label = 0; label < labels; label++) {
+						double score = local[label] + prevScore;
+						if (score > current[label]) {
+							current[label] = score;
+							backpointers[row + label] = prevLabel;
+						}
+					}
+				}
+			}
+			double[] swap = previous;
+			previous = current;
+			current = swap;
+		}
+
+		// backtrack
+		int bestLabel = 0;
+		for (int label = 1; label < labels; label++) {
+			if (previous[label] > previous[bestLabel]) {
+				bestLabel = label;
+			}
+		}
+		for (int position = n - 1; position >= 0; position--) {
+			data.get(position).guessLabel = (String) labelIndex.get(bestLabel);
+			bestLabel = backpointers[position * labels + bestLabel];
+		}
+	}
+
+	// marks the labels of previous that are extended: all, or the beam best
+	private void selectBeam() {
+		if (beam <= 0 || beam >= labels) {
+			Arrays.fill(active, true);
+			return;
+		}
+		Arrays.fill(active, false);
+		for (int k = 0; k < beam; k++) {
+			int best = -1;
+			for (int label = 0; label < labels; label++) {
+				if (!active[label] && (best < 0 || previous[label] > previous[best])) {
+					best = label;
+				}
+			}
+			active[best] = true;
+		}
+	}
+
+	// sets local to the scores of datum for each label
+	private void scores(Datum datum) {
+		Arrays.fill(local, 0.0);
+		int[] features = datum.featureIds;
+		double[] values = datum.featureValues;
+		for (int k = 0; k < features.length; k++) {
+			int base = features[k] * labels;
+			double sign = values == null ? 1.0 : values[k];
+			for (int label = 0; label < labels; label++) {
+				local[label] += sign * weights[base + label];
+			}
+		}
+	}
+
+	private Datum compile(Datum datum) {
+		if (datum.featureIds == null) {
+			datum.compile(featureIndex, labelIndex);
+		}
+		return datum;
+	}
+
+	/**
+	 * Trains on a feature file, then decodes a test feature file with Viterbi and with
+	 * this decoder, with no beam and with a beam of 1, both over the whole file and in
+	 * batches of short sequences. Checks that without a beam both decoders agree, and
+	 * prints tokens per second and F1. Features are looked up before timing, as both
+	 * decoders share that step.
+	 *
+	 * usage: BeamViterbi trainWithFeatures.bin testWithFeatures.bin
+	 */
+	public static void main(String[] args) throws IOException {
+		CompactModel model = MEMM.train(args[0], 0.0, MEMM.DEFAULT_SIGMA, new Index());
+		List<Datum> multi = MEMM.readData(args[1]);
+		int labels = model.labelIndex.size();
+		List<Datum> data = MEMM.firstOfEach(multi, labels);
+		for (Datum datum : multi) {
+			datum.compile(model.featureIndex, model.labelIndex);
+		}
+
+		// short sequences for the batch, 25 tokens each; the first position of each is
+		// scored as the start of a sequence, from its datum in data
+		List<List<Datum>> batch = new ArrayList<List<Datum>>();
+		List<List<Datum>> batchMulti = new ArrayList<List<Datum>>();
+		for (int start = 0; start < data.size(); start += 25) {
+			int end = Math.min(start + 25, data.size());
+			batch.add(data.subList(start, end));
+			List<Datum> sequence = new ArrayList<Datum>();
+			sequence.add(data.get(start));
+			sequence.addAll(multi.subList((start + 1) * labels - 1, end * labels - 1));
+			batchMulti.add(sequence);
+		}
+
+		Viterbi viterbi = model.viterbi();
+		BeamViterbi decoder = new BeamViterbi(model.labelIndex, model.featureIndex, model.weights);
+		long best = Long.MAX_VALUE;
+		for (int round = 0; round < 10; round++) {
+			long start = System.nanoTime();
+			viterbi.decode(data, multi);
+			best = Math.min(best, System.nanoTime() - start);
+		}
+		String[] expected = new String[data.size()];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = data.get(i).guessLabel;
+		}
+		report("Viterbi", data, best);
+
+		for (int beam : new int[] { 0, 1 }) {
+			decoder.setBeam(beam);
+			best = Long.MAX_VALUE;
+			for (int round = 0; round < 10; round++) {
+				long start = System.nanoTime();
+				decoder.decode(data, multi);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			boolean same = true;
+			for (int i = 0; i < expected.length; i++) {
+				same &= expected[i].equals(data.get(i).guessLabel);
+			}
+			report("BeamViterbi, beam " + beam + (same ? ", same labels" : ", different labels"), data, best);
+
+			best = Long.MAX_VALUE;
+			for (int round = 0; round < 10; round++) {
+				long start = System.nanoTime();
+				decoder.decodeAll(batch, batchMulti);
+				best = Math.min(best, System.nanoTime() - start);
+			}
+			report("BeamViterbi, beam " + beam + ", " + batch.size() + " sequences", data, best);
+		}
+	}
+
+	private static void report(String name, List<Datum> data, long nanos) {
+		int correct = 0, guessed = 0, gold = 0;
+		// token-level PERSON F1, cheap and enough to compare decoders
+		for (Datum datum : data) {
+			boolean g = datum.guessLabel.equals("PERSON");
+			boolean t = datum.label.equals("PERSON");
+			guessed += g ? 1 : 0;
+			gold += t ? 1 : 0;
+			correct += g && t ? 1 : 0;
+		}
+		double f1 = 2.0 * correct / (guessed + gold);
+		System.out.println(String.format("%-45s %,12.0f tokens/s, token F1 %.4f", name,
+				data.size() / (nanos / 1e9), f1));
+	}
+}
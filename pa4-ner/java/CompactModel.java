@@ -0,0 +1,196 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * A trained MEMM with the features whose weights are all zero left out.
+ *
+ * After L1 training (see QNMinimizer.useOWLQN) most features have a zero weight for
+ * every label and never change a score, so dropping them gives the same decoder with
+ * a smaller feature index and weight vector. Features of the test data that are not
+ * in the model are skipped by Viterbi, as unseen features always were.
+ *
+ * A model over a HashedIndex has no feature names to keep, and its ids are fixed by
+ * the hash, so it keeps all its weights; only its file leaves out the ids whose
+ * weights are all zero.
+ *
+ * The file starts with the magic number "NERM" and a version, followed by the labels,
+ * the number of hash bits (0 without hashing) and whether the hashing is signed, and
+ * then, for each feature, its name (its id when hashed) and one weight per label.
+ * Version 1 files have no hashing fields.
+ */
+public class CompactModel {
+
+  private static final int MAGIC = 0x4e45524d; // "NERM"
+  private static final int VERSION = 2;
+
+  public final Index labelIndex;
+  public final FeatureIndex featureIndex;
+  public final double[] weights; // feature-major, as in LogConditionalObjectiveFunction
+
+  private CompactModel(Index labelIndex, FeatureIndex featureIndex, double[] weights) {
+    this.labelIndex = labelIndex;
+    this.featureIndex = featureIndex;
+    this.weights = weights;
+  }
+
+  /** The model of the feature-major weights of the features of featureIndex, without
+   *  the features whose weights are all zero. */
+  public static CompactModel compact(Index labelIndex, FeatureIndex featureIndex, double[] weights) {
+    if (!featureIndex.hasNames()) {
+      return new CompactModel(labelIndex, featureIndex, weights);
+    }
+    int labels = labelIndex.size();
+    Index kept = new Index();
+    double[] keptWeights = new double[weights.length];
+    for (int f = 0; f < featureIndex.size(); f++) {
+      int base = f * labels;
+      boolean zero = true;
+      for (int i = 0; i < labels; i++) {
+        zero &= weights[base + i] == 0.0;
+      }
+      if (!zero) {
+        System.arraycopy(weights, base, keptWeights, kept.size() * labels, labels);
+        kept.add(featureIndex.get(f));
+      }
+    }
+    return new CompactModel(labelIndex, kept, Arrays.copyOf(keptWeights, kept.size() * labels));
+  }
+
+  private boolean isZero(int f) {
+    int labels = labelIndex.size();
+    for (int i = f * labels; i < (f + 1) * labels; i++) {
+      if (weights[i] != 0.0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Viterbi viterbi() {
+    return new Viterbi(labelIndex, featureIndex, weights);
+  }
+
+  public void write(String filename) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(filename)));
+    try {
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+      out.writeInt(labelIndex.size());
+      for (int i = 0; i < labelIndex.size(); i++) {
+        out.writeUTF((String) labelIndex.get(i));
+      }
+      int labels = labelIndex.size();
+      if (!featureIndex.hasNames()) {
+        out.writeInt(Integer.numberOfTrailingZeros(featureIndex.size())); // the hash bits
+        out.writeBoolean(featureIndex.isSigned());
+        int nonzero = 0;
+        for (int f = 0; f < featureIndex.size(); f++) {
+          nonzero += isZero(f) ? 0 : 1;
+        }
+        out.writeInt(nonzero);
+        for (int f = 0; f < featureIndex.size(); f++) {
+          if (!isZero(f)) {
+            out.writeInt(f);
+            for (int i = 0; i < labels; i++) {
+              out.writeDouble(weights[f * labels + i]);
+            }
+          }
+        }
+        return;
+      }
+      out.writeInt(0);
+      out.writeBoolean(false);
+      out.writeInt(featureIndex.size());
+      int w = 0;
+      for (int f = 0; f < featureIndex.size(); f++) {
+        out.writeUTF((String) featureIndex.get(f));
+        for (int i = 0; i < labels; i++) {
+          out.writeDouble(weights[w++]);
+        }
+      }
+    } finally {
+      out.close();
+    }
+  }
+
+  public static CompactModel read(String filename) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(filename)));
+    try {
+      if (in.readInt() != MAGIC) {
+        throw new IOException(filename + " is not a model file");
+      }
+      int version = in.readInt();
+      if (version != 1 && version != VERSION) {
+        throw new IOException(filename + ": unsupported model version " + version);
+      }
+      Index labelIndex = new Index();
+      int labels = in.readInt();
+      for (int i = 0; i < labels; i++) {
+        labelIndex.add(in.readUTF());
+      }
+      int bits = version == 1 ? 0 : in.readInt();
+      boolean signed = version == 1 ? false : in.readBoolean();
+      if (bits > 0) {
+        HashedIndex hashed = new HashedIndex(bits, signed);
+        double[] weights = new double[hashed.size() * labels];
+        int nonzero = in.readInt();
+        for (int k = 0; k < nonzero; k++) {
+          int f = in.readInt();
+          for (int i = 0; i < labels; i++) {
+            weights[f * labels + i] = in.readDouble();
+          }
+        }
+        return new CompactModel(labelIndex, hashed, weights);
+      }
+      Index featureIndex = new Index();
+      int features = in.readInt();
+      double[] weights = new double[features * labels];
+      int w = 0;
+      for (int f = 0; f < features; f++) {
+        featureIndex.add(in.readUTF());
+        for (int i = 0; i < labels; i++) {
+          weights[w++] = in.readDouble();
+        }
+      }
+      return new CompactModel(labelIndex, featureIndex, weights);
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Trains a model with an L1 penalty and one over a signed HashedIndex, writes each to
+   * a temporary file and reads it back, and checks that the copy has the same labels,
+   * features and weights, and labels the test data the same way.
+   *
+   * usage: CompactModel trainWithFeatures.bin testWithFeatures.bin
+   */
+  public static void main(String[] args) throws IOException {
+    CompactModel[] models = {
+      MEMM.train(args[0], 0.02, MEMM.DEFAULT_SIGMA, new Index()),
+      MEMM.train(args[0], 0.0, MEMM.DEFAULT_SIGMA, new HashedIndex(16, true))
+    };
+    for (CompactModel model : models) {
+      File file = File.createTempFile("model", ".nerm");
+      try {
+        model.write(file.getPath());
+        CompactModel copy = read(file.getPath());
+        boolean same = copy.labelIndex.toString().equals(model.labelIndex.toString())
+            && copy.featureIndex.toString().equals(model.featureIndex.toString())
+            && Arrays.equals(copy.weights, model.weights);
+        List<Datum> expected = MEMM.decode(args[1], model.viterbi());
+        List<Datum> actual = MEMM.decode(args[1], copy.viterbi());
+        boolean sameLabels = true;
+        for (int i = 0; i < expected.size(); i++) {
+          sameLabels &= expected.get(i).guessLabel.equals(actual.get(i).guessLabel);
+        }
+        System.out.println(String.format("%s features, %,d bytes: same model %s, same labels %s",
+            model.featureIndex.hasNames() ? String.valueOf(model.featureIndex.size())
+                : model.featureIndex.toString(),
+            file.length(), same ? "PASS" : "*FAIL*", sameLabels ? "PASS" : "*FAIL*"));
+      } finally {
+        file.delete();
+      }
+    }
+  }
+}
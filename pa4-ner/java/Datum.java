@@ -7,9 +7,41 @@ public class Datum {
   public List<String> features;
   public String guessLabel;
   public String previousLabel;
+
+  // features and labels as indexes, set by compile()
+  public int[] featureIds;
+  public double[] featureValues; // the sign of each feature, null if they are all 1
+  public int labelId = -1;
+  public int previousLabelId = -1;
   
   public Datum(String word, String label) {
     this.word = word;
     this.label = label;
   }
+
+  /** Looks up the features and the label once, so that training and decoding loops
+   *  work on ints. Features missing from featureIndex are dropped; labels missing
+   *  from labelIndex get -1. */
+  public void compile(FeatureIndex featureIndex, Index labelIndex) {
+    int[] ids = new int[features.size()];
+    HashedIndex signed = HashedIndex.signed(featureIndex);
+    double[] values = signed != null ? new double[ids.length] : null;
+    int n = 0;
+    for (String feature : features) {
+      if (signed != null) {
+        int f = signed.signedIndexOf(feature);
+        values[n] = f < 0 ? -1.0 : 1.0;
+        ids[n++] = f < 0 ? ~f : f;
+        continue;
+      }
+      int f = featureIndex.indexOf(feature);
+      if (f >= 0) {
+        ids[n++] = f;
+      }
+    }
+    featureIds = n == ids.length ? ids : Arrays.copyOf(ids, n);
+    featureValues = values == null || n == values.length ? values : Arrays.copyOf(values, n);
+    labelId = labelIndex.indexOf(label);
+    previousLabelId = previousLabel == null ? -1 : labelIndex.indexOf(previousLabel);
+  }
 }
\ No newline at end of file
@@ -24,16 +24,44 @@ public class FeatureFactory {
      * for position-1 (or O if it's the start of a new sentence), and position
      * is the word you are adding features for. PreviousLabel must be the
      * only label that is visible to this method. 
+     *
+     * The features are those of computeWordFeatures followed by those of
+     * computeLabelFeatures; add yours to the first if they do not use
+     * previousLabel, so that decoding computes them once per word.
+     * templates() gives the same features as ints, for NER -templates.
      */
     private List<String> computeFeatures(List<String> words,
 					 String previousLabel, int position) {
 
+	List<String> features = computeWordFeatures(words, position);
+	features.addAll(computeLabelFeatures(words, previousLabel, position));
+	return features;
+    }
+
+    /** The features of position that do not depend on the previous label. */
+    private List<String> computeWordFeatures(List<String> words, int position) {
+
 	List<String> features = new ArrayList<String>();
 
 	String currentWord = words.get(position);
 
 	// Baseline Features  
 	features.add("word=" + currentWord);
+
+	// TODO: Add your features here 
+
+	return features;
+    }
+
+    /** The features of position that depend on the previous label. */
+    private List<String> computeLabelFeatures(List<String> words,
+					      String previousLabel, int position) {
+
+	List<String> features = new ArrayList<String>();
+
+	String currentWord = words.get(position);
+
+	// Baseline Features  
 	features.add("prevLabel=" + previousLabel);
 	features.add("word=" + currentWord + ", prevLabel=" + previousLabel);
 	/** Warning: If you encounter "line search failure" error when
@@ -48,6 +76,71 @@ public class FeatureFactory {
     }
 
 
+    /**
+     * The features of computeFeatures as int templates, for NER -templates,
+     * which trains and decodes without making strings. Each template adds
+     * ints for a position to a Buffer, and format() writes one of them as
+     * the string computeFeatures gives for it. labelIndex numbers the
+     * previous labels and must already have all of them.
+     *
+     * Optional: if you add features to computeFeatures and want to use
+     * -templates, add them here too. FeatureTemplates main checks that the
+     * two give the same features.
+     */
+    public FeatureTemplates templates(final Index labelIndex) {
+
+	FeatureTemplates templates = new FeatureTemplates(labelIndex);
+	// the radix of the word x previous label values, fixed so that a value
+	// means the same whatever labels are added to labelIndex later
+	final int labels = labelIndex.size();
+
+	// Baseline Features
+	templates.add(new FeatureTemplates.Template() {
+		public void emit(FeatureTemplates.Words words, int position,
+				 int previousLabel, FeatureTemplates.Buffer out) {
+		    out.add(words.id(position));
+		}
+
+		public String format(FeatureTemplates.Words words, int value) {
+		    return "word=" + words.word(value);
+		}
+	    });
+	templates.add(new FeatureTemplates.Template() {
+		public void emit(FeatureTemplates.Words words, int position,
+				 int previousLabel, FeatureTemplates.Buffer out) {
+		    out.add(previousLabel);
+		}
+
+		public String format(FeatureTemplates.Words words, int value) {
+		    return "prevLabel=" + labelIndex.get(value);
+		}
+
+		public boolean usesPreviousLabel() {
+		    return true;
+		}
+	    });
+	templates.add(new FeatureTemplates.Template() {
+		public void emit(FeatureTemplates.Words words, int position,
+				 int previousLabel, FeatureTemplates.Buffer out) {
+		    if (previousLabel >= labels) {
+			throw new IllegalArgumentException("label " + previousLabel
+							   + " was added after the templates were made");
+		    }
+		    out.add(words.id(position) * labels + previousLabel);
+		}
+
+		public String format(FeatureTemplates.Words words, int value) {
+		    return "word=" + words.word(value / labels)
+			+ ", prevLabel=" + labelIndex.get(value % labels);
+		}
+
+		public boolean usesPreviousLabel() {
+		    return true;
+		}
+	    });
+	return templates;
+    }
+
     /** Do not modify this method **/
     public List<Datum> readData(String filename) throws IOException {
 
@@ -162,6 +255,25 @@ public class FeatureFactory {
 	return newData;
     }
 
+    /** The features of data for Viterbi.decode(List, Features), computed
+     *  when the decoder asks for them instead of for every previous label in
+     *  advance as setFeaturesTest does. */
+    public Viterbi.Features testFeatures(List<Datum> data) {
+	final List<String> words = new ArrayList<String>();
+	for (Datum datum : data) {
+	    words.add(datum.word);
+	}
+	return new Viterbi.Features() {
+	    public List<String> shared(int position) {
+		return computeWordFeatures(words, position);
+	    }
+
+	    public List<String> given(int position, String previousLabel) {
+		return computeLabelFeatures(words, previousLabel, position);
+	    }
+	};
+    }
+
     /** Do not modify this method **/
     public void writeData(List<Datum> data, String filename)
 	throws IOException {
@@ -196,6 +308,24 @@ public class FeatureFactory {
 	file.close();
     }
 
+    /** Writes the same data as writeData, in the binary format of FeatureFile,
+     *  to filename + ".bin". MEMM reads either. */
+    public void writeBinaryData(List<Datum> data, String filename)
+	throws IOException {
+
+	FeatureFile.Writer file = new FeatureFile.Writer(filename + ".bin");
+	try {
+	    for (Datum datum : data) {
+		Datum encoded = new Datum(base64encode(datum.word), datum.label);
+		encoded.previousLabel = datum.previousLabel;
+		encoded.features = datum.features;
+		file.write(encoded);
+	    }
+	} finally {
+	    file.close();
+	}
+    }
+
     /** Do not modify this method **/
     private String base64encode(String str) {
 	Base64 base = new Base64();
@@ -0,0 +1,278 @@
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+
+/**
+ * A compact binary form of the feature files that FeatureFactory writes for MEMM.
+ *
+ * The file starts with the magic number "NERF" and a version, followed by one record
+ * per datum: its word, label and previous label, the number of features, then the
+ * features. Every string is written once, the first time it is used, as a 0 followed
+ * by its length and UTF-8 bytes; later uses are written as its id + 1, ids counting
+ * from 0 in order of appearance. Words, labels and features have separate ids. All
+ * numbers are unsigned varints (7 bits per byte, low bits first).
+ *
+ * Since each string is defined where it first appears, the file can be written and
+ * read in one pass, a datum at a time, through a buffered channel. The strings are the
+ * same as in the JSON file (the word is Base64 encoded), and the features of a datum
+ * are written once each, as the keys of the JSON object do, so both formats give MEMM
+ * the same data.
+ */
+public class FeatureFile {
+
+  private static final int MAGIC = 0x4e455246; // "NERF"
+  private static final int VERSION = 1;
+  private static final int BUFFER_SIZE = 1 << 16;
+
+  /** Writes datums one at a time. */
+  public static class Writer implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final Map<String, Integer> words = new HashMap<String, Integer>();
+    private final Map<String, Integer> labels = new HashMap<String, Integer>();
+    private final Map<String, Integer> features = new HashMap<String, Integer>();
+    private final Set<String> seen = new HashSet<String>();
+
+    public Writer(String filename) throws IOException {
+      channel = new FileOutputStream(filename).getChannel();
+      buffer.putInt(MAGIC);
+      buffer.putInt(VERSION);
+    }
+
+    public void write(Datum datum) throws IOException {
+      writeString(words, datum.word);
+      writeString(labels, datum.label);
+      writeString(labels, datum.previousLabel);
+      seen.clear();
+      for (String feature : datum.features) {
+        seen.add(feature);
+      }
+      writeVarint(seen.size());
+      seen.clear();
+      for (String feature : datum.features) {
+        if (seen.add(feature)) {
+          writeString(features, feature);
+        }
+      }
+    }
+
+    private void writeString(Map<String, Integer> ids, String s) throws IOException {
+      Integer id = ids.get(s);
+      if (id != null) {
+        writeVarint(id + 1);
+        return;
+      }
+      ids.put(s, ids.size());
+      byte[] bytes = s.getBytes("UTF-8");
+      writeVarint(0);
+      writeVarint(bytes.length);
+      if (buffer.remaining() < bytes.length) {
+        flush();
+      }
+      if (bytes.length > buffer.capacity()) {
+        channel.write(ByteBuffer.wrap(bytes));
+      } else {
+        buffer.put(bytes);
+      }
+    }
+
+    private void writeVarint(int value) throws IOException {
+      if (buffer.remaining() < 5) {
+        flush();
+      }
+      while ((value & ~0x7f) != 0) {
+        buffer.put((byte) ((value & 0x7f) | 0x80));
+        value >>>= 7;
+      }
+      buffer.put((byte) value);
+    }
+
+    private void flush() throws IOException {
+      buffer.flip();
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      buffer.clear();
+    }
+
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+  }
+
+  /** Reads datums one at a time, so a file can be streamed without holding it in memory. */
+  public static class Reader implements Closeable {
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final List<String> words = new ArrayList<String>();
+    private final List<String> labels = new ArrayList<String>();
+    private final List<String> features = new ArrayList<String>();
+    private byte[] bytes = new byte[256];
+
+    public Reader(String filename) throws IOException {
+      channel = new FileInputStream(filename).getChannel();
+      buffer.limit(0);
+      if (!fill(8) || buffer.getInt() != MAGIC) {
+        channel.close();
+        throw new IOException(filename + " is not a binary feature file");
+      }
+      int version = buffer.getInt();
+      if (version != VERSION) {
+        channel.close();
+        throw new IOException(filename + ": unsupported feature file version " + version);
+      }
+    }
+
+    /** Returns the next datum, or null at the end of the file. */
+    public Datum next() throws IOException {
+      if (!fill(1)) {
+        return null;
+      }
+      Datum datum = new Datum(readString(words), readString(labels));
+      datum.previousLabel = readString(labels);
+      int n = readVarint();
+      List<String> datumFeatures = new ArrayList<String>(n);
+      for (int i = 0; i < n; i++) {
+        datumFeatures.add(readString(features));
+      }
+      datum.features = datumFeatures;
+      return datum;
+    }
+
+    // makes at least n bytes available in the buffer, unless the file ends first
+    private boolean fill(int n) throws IOException {
+      if (buffer.remaining() >= n) {
+        return true;
+      }
+      buffer.compact();
+      while (buffer.position() < n) {
+        if (channel.read(buffer) < 0) {
+          break;
+        }
+      }
+      buffer.flip();
+      return buffer.remaining() >= n;
+    }
+
+    private String readString(List<String> strings) throws IOException {
+      int id = readVarint();
+      if (id > 0) {
+        return strings.get(id - 1);
+      }
+      int length = readVarint();
+      if (bytes.length < length) {
+        bytes = new byte[Math.max(length, 2 * bytes.length)];
+      }
+      int read = 0;
+      while (read < length) {
+        if (!fill(1)) {
+          throw new EOFException("Truncated feature file");
+        }
+        int chunk = Math.min(length - read, buffer.remaining());
+        buffer.get(bytes, read, chunk);
+        read += chunk;
+      }
+      String s = new String(bytes, 0, length, "UTF-8");
+      strings.add(s);
+      return s;
+    }
+
+    private int readVarint() throws IOException {
+      int value = 0;
+      for (int shift = 0; ; shift += 7) {
+        if (!fill(1)) {
+          throw new EOFException("Truncated feature file");
+        }
+        byte b = buffer.get();
+        value |= (b & 0x7f) << shift;
+        if (b >= 0) {
+          return value;
+        }
+      }
+    }
+
+    public void close() throws IOException {
+      channel.close();
+    }
+  }
+
+  /** Writes data to filename. */
+  public static void write(List<Datum> data, String filename) throws IOException {
+    Writer writer = new Writer(filename);
+    try {
+      for (Datum datum : data) {
+        writer.write(datum);
+      }
+    } finally {
+      writer.close();
+    }
+  }
+
+  /** Reads all of filename. */
+  public static List<Datum> read(String filename) throws IOException {
+    List<Datum> data = new ArrayList<Datum>();
+    Reader reader = new Reader(filename);
+    try {
+      for (Datum datum = reader.next(); datum != null; datum = reader.next()) {
+        data.add(datum);
+      }
+    } finally {
+      reader.close();
+    }
+    return data;
+  }
+
+  /** True if filename starts like a binary feature file. */
+  public static boolean isFeatureFile(String filename) throws IOException {
+    DataInputStream in = new DataInputStream(new FileInputStream(filename));
+    try {
+      return in.readInt() == MAGIC;
+    } catch (EOFException e) {
+      return false;
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * Converts a JSON feature file to the binary format, checks that both read back the
+   * same, and compares their sizes and reading times.
+   *
+   * usage: FeatureFile trainWithFeatures.json trainWithFeatures.bin
+   */
+  public static void main(String[] args) throws IOException {
+    List<Datum> json = MEMM.readData(args[0]);
+    long start = System.nanoTime();
+    write(json, args[1]);
+    long writeTime = System.nanoTime() - start;
+
+    long jsonTime = Long.MAX_VALUE;
+    long binaryTime = Long.MAX_VALUE;
+    List<Datum> binary = null;
+    for (int round = 0; round < 3; round++) {
+      start = System.nanoTime();
+      json = MEMM.readData(args[0]);
+      jsonTime = Math.min(jsonTime, System.nanoTime() - start);
+      start = System.nanoTime();
+      binary = read(args[1]);
+      binaryTime = Math.min(binaryTime, System.nanoTime() - start);
+    }
+
+    boolean same = json.size() == binary.size();
+    for (int i = 0; same && i < json.size(); i++) {
+      Datum a = json.get(i);
+      Datum b = binary.get(i);
+      same = a.word.equals(b.word) && a.label.equals(b.label)
+          && a.previousLabel.equals(b.previousLabel)
+          && new HashSet<String>(a.features).equals(new HashSet<String>(b.features))
+          && a.features.size() == b.features.size();
+    }
+    System.out.println(String.format("%d datums, same data: %s", json.size(), same ? "PASS" : "*FAIL*"));
+    System.out.println(String.format("JSON:   %8d KB, read in %d ms",
+        new File(args[0]).length() / 1024, jsonTime / 1000000));
+    System.out.println(String.format("binary: %8d KB, read in %d ms, written in %d ms",
+        new File(args[1]).length() / 1024, binaryTime / 1000000, writeTime / 1000000));
+  }
+}
@@ -0,0 +1,27 @@
+/**
+ * The ids of the features of a model, from 0 to size() - 1, which index its
+ * feature-major weights. Index numbers the features it is given; HashedIndex hashes
+ * them into a fixed number of ids without storing them.
+ */
+public interface FeatureIndex {
+
+  /** Adds feature o if it has no id yet; returns true if it was added. */
+  boolean add(Object o);
+
+  /** The id of feature o, or -1 if it has none. Without names, every feature has
+   *  an id. */
+  int indexOf(Object o);
+
+  /** True if the index keeps its features, so that get() can give them back; false
+   *  if it hashes them, in which case its ids are fixed by the hash and size() is a
+   *  power of 2. */
+  boolean hasNames();
+
+  /** True if each feature also has a sign, -1 or 1; see HashedIndex. */
+  boolean isSigned();
+
+  /** The feature with id i; only if hasNames(). */
+  Object get(int i);
+
+  int size();
+}
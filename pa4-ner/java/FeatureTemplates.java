@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+/**
+ * Feature templates that emit ints instead of strings.
+ *
+ * FeatureFactory builds every feature of every word, for every previous label, by
+ * concatenating strings, which are then hashed to look up their ids. Here the words
+ * of the corpus are numbered once (Words), and each Template adds (template id, value
+ * id) pairs to a reused Buffer: the value of "word=" is the word's number, that of
+ * "word=..., prevLabel=..." combines the word's and the label's numbers, and so on.
+ * A PairIndex then turns the pairs into feature ids without allocating anything.
+ * Strings are only made by Template.format, for debugging or to write the features
+ * out.
+ *
+ * FeatureFactory.templates() gives the templates of the features of
+ * FeatureFactory.computeFeatures, which main checks format() reproduces exactly.
+ * setFeaturesTrain() and featureIds() train and decode on the ints directly (see
+ * NER -templates); the default path keeps the strings of computeFeatures.
+ */
+public class FeatureTemplates {
+
+  /** The words of a corpus, numbered once so that templates can use ints. Words
+   *  keep their numbers across the corpora of a FeatureTemplates (see words()). */
+  public static class Words {
+    private final String[] words;
+    private final int[] ids;
+    private final List<String> vocabulary;
+
+    private Words(List<Datum> data, Map<String, Integer> numbers, List<String> vocabulary) {
+      this.vocabulary = vocabulary;
+      words = new String[data.size()];
+      ids = new int[data.size()];
+      for (int i = 0; i < words.length; i++) {
+        words[i] = data.get(i).word;
+        Integer id = numbers.get(words[i]);
+        if (id == null) {
+          id = vocabulary.size();
+          numbers.put(words[i], id);
+          vocabulary.add(words[i]);
+        }
+        ids[i] = id;
+      }
+    }
+
+    public int size() {
+      return words.length;
+    }
+
+    /** The word at position. */
+    public String get(int position) {
+      return words[position];
+    }
+
+    /** The number of the word at position. */
+    public int id(int position) {
+      return ids[position];
+    }
+
+    /** The word numbered id. */
+    public String word(int id) {
+      return vocabulary.get(id);
+    }
+  }
+
+  /** The (template, value) pairs of a position, in two reused arrays. */
+  public static class Buffer {
+    private int[] templates = new int[16];
+    private int[] values = new int[16];
+    private int[] ids = new int[16];
+    private int size = 0;
+    private int template; // of the values being added
+
+    public void clear() {
+      size = 0;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public int template(int k) {
+      return templates[k];
+    }
+
+    public int value(int k) {
+      return values[k];
+    }
+
+    /** Adds a value of the template being emitted; values are from 0 up. */
+    public void add(int value) {
+      if (size == values.length) {
+        templates = Arrays.copyOf(templates, 2 * size);
+        values = Arrays.copyOf(values, 2 * size);
+      }
+      templates[size] = template;
+      values[size++] = value;
+    }
+
+    /** Looks up the feature ids of the pairs from first up in index, for id(). Pairs
+     *  not in index are added to it if add is set, otherwise left out. Returns the
+     *  number of ids. */
+    public int lookup(PairIndex index, boolean add, int first) {
+      if (ids.length < size) {
+        ids = new int[values.length];
+      }
+      int n = 0;
+      for (int k = first; k < size; k++) {
+        int id = add ? index.add(templates[k], values[k]) : index.indexOf(templates[k], values[k]);
+        if (id >= 0) {
+          ids[n++] = id;
+        }
+      }
+      return n;
+    }
+
+    /** The kth id found by the last lookup(). */
+    public int id(int k) {
+      return ids[k];
+    }
+  }
+
+  /** One kind of feature. */
+  public static abstract class Template {
+    /** Adds the values of this template at position to out. previousLabel is the
+     *  id of the previous label if usesPreviousLabel(), otherwise -1. */
+    public abstract void emit(Words words, int position, int previousLabel, Buffer out);
+
+    /** The string form of value, as FeatureFactory would write the feature. */
+    public abstract String format(Words words, int value);
+
+    public boolean usesPreviousLabel() {
+      return false;
+    }
+  }
+
+  private final List<Template> templates = new ArrayList<Template>();
+  private final Map<String, Integer> numbers = new HashMap<String, Integer>();
+  private final List<String> vocabulary = new ArrayList<String>();
+  public final Index labelIndex;
+
+  public FeatureTemplates(Index labelIndex) {
+    this.labelIndex = labelIndex;
+  }
+
+  /** The words of data, numbered as in the other corpora of these templates. */
+  public Words words(List<Datum> data) {
+    return new Words(data, numbers, vocabulary);
+  }
+
+  /** Adds template and returns its id. */
+  public int add(Template template) {
+    templates.add(template);
+    return templates.size() - 1;
+  }
+
+  /** Adds the features of position that do not depend on the previous label to out. */
+  public void shared(Words words, int position, Buffer out) {
+    for (int t = 0; t < templates.size(); t++) {
+      Template template = templates.get(t);
+      if (!template.usesPreviousLabel()) {
+        out.template = t;
+        template.emit(words, position, -1, out);
+      }
+    }
+  }
+
+  /** Adds the features of position that depend on the previous label to out. */
+  public void given(Words words, int position, int previousLabel, Buffer out) {
+    for (int t = 0; t < templates.size(); t++) {
+      Template template = templates.get(t);
+      if (template.usesPreviousLabel()) {
+        out.template = t;
+        template.emit(words, position, previousLabel, out);
+      }
+    }
+  }
+
+  /** The string form of pair k of out. */
+  public String format(Words words, Buffer out, int k) {
+    return templates.get(out.template(k)).format(words, out.value(k));
+  }
+
+  /** The training data as FeatureFactory.setFeaturesTrain gives it, but compiled
+   *  (see Datum.compile) without making strings: the features are ids of index, to
+   *  which new ones are added, and the labels ids of labelIndex, which must have
+   *  every label of data. */
+  public List<Datum> setFeaturesTrain(List<Datum> data, PairIndex index) {
+    Words words = words(data);
+    Buffer buffer = new Buffer();
+    List<Datum> newData = new ArrayList<Datum>();
+    String previousLabel = "O";
+    for (int i = 0; i < data.size(); i++) {
+      Datum datum = data.get(i);
+      Datum newDatum = new Datum(datum.word, datum.label);
+      newDatum.previousLabel = previousLabel;
+      newDatum.previousLabelId = labelIndex.indexOf(previousLabel);
+      newDatum.labelId = labelIndex.indexOf(datum.label);
+      buffer.clear();
+      shared(words, i, buffer);
+      given(words, i, newDatum.previousLabelId, buffer);
+      newDatum.featureIds = new int[buffer.lookup(index, true, 0)];
+      for (int k = 0; k < newDatum.featureIds.length; k++) {
+        newDatum.featureIds[k] = buffer.id(k);
+      }
+      newData.add(newDatum);
+      previousLabel = datum.label;
+    }
+    return newData;
+  }
+
+  /** The strings of the features of index, numbered as in index, so that a model
+   *  trained on its ids can also decode the features of FeatureFactory. */
+  public Index featureIndex(PairIndex index) {
+    Words words = words(Collections.<Datum>emptyList()); // only its vocabulary is used
+    Index strings = new Index();
+    for (int id = 0; id < index.size(); id++) {
+      strings.add(templates.get(index.template(id)).format(words, index.value(id)));
+    }
+    return strings;
+  }
+
+  /** The features of data for Viterbi.decode(List, FeatureIds), as ids of index;
+   *  features not in index are left out. */
+  public Viterbi.FeatureIds featureIds(List<Datum> data, final PairIndex index) {
+    final Words words = words(data);
+    final Buffer buffer = new Buffer();
+    return new Viterbi.FeatureIds() {
+      public int shared(int position) {
+        buffer.clear();
+        FeatureTemplates.this.shared(words, position, buffer);
+        return buffer.lookup(index, false, 0);
+      }
+
+      public int given(int position, int previousLabel) {
+        // after the pairs of shared() and of the previous labels asked so far
+        int first = buffer.size();
+        FeatureTemplates.this.given(words, position, previousLabel, buffer);
+        return buffer.lookup(index, false, first);
+      }
+
+      public int id(int k) {
+        return buffer.id(k);
+      }
+    };
+  }
+
+  /**
+   * Computes the features of every word of a corpus for every previous label, as
+   * decoding needs them, and looks up their ids, once with the strings of
+   * FeatureFactory and once with its templates. Checks that both give the same
+   * features, numbered the same way, and prints tokens per second and bytes
+   * allocated per token.
+   *
+   * usage: FeatureTemplates ../data/train ../data/dev
+   */
+  public static void main(String[] args) throws IOException {
+    FeatureFactory ff = new FeatureFactory();
+    List<Datum> train = ff.readData(args[0]);
+    List<Datum> test = ff.readData(args[1]);
+
+    Index labelIndex = new Index();
+    labelIndex.add("O");
+    for (Datum datum : train) {
+      labelIndex.add(datum.label);
+    }
+
+    // the feature ids of the training data, both ways
+    Index featureIndex = new Index();
+    for (Datum datum : ff.setFeaturesTrain(train)) {
+      for (String feature : datum.features) {
+        featureIndex.add(feature);
+      }
+    }
+    FeatureTemplates templates = ff.templates(labelIndex);
+    PairIndex pairIndex = new PairIndex();
+    templates.setFeaturesTrain(train, pairIndex);
+    boolean numbered = templates.featureIndex(pairIndex).toString().equals(featureIndex.toString());
+    System.out.println(String.format("%d features from strings, %d from templates, same numbering: %s",
+        featureIndex.size(), pairIndex.size(), numbered ? "PASS" : "*FAIL*"));
+
+    // the same features both ways?
+    Viterbi.Features strings = ff.testFeatures(test);
+    Words words = templates.words(test);
+    Buffer buffer = new Buffer();
+    boolean same = true;
+    for (int position = 0; same && position < words.size(); position++) {
+      for (int label = 0; same && label < labelIndex.size(); label++) {
+        List<String> expected = new ArrayList<String>(strings.shared(position));
+        expected.addAll(strings.given(position, (String) labelIndex.get(label)));
+        buffer.clear();
+        templates.shared(words, position, buffer);
+        templates.given(words, position, label, buffer);
+        List<String> actual = new ArrayList<String>();
+        for (int k = 0; k < buffer.size(); k++) {
+          actual.add(templates.format(words, buffer, k));
+        }
+        same = expected.equals(actual);
+      }
+    }
+    System.out.println("same features: " + (same ? "PASS" : "*FAIL*"));
+
+    long stringTime = Long.MAX_VALUE, templateTime = Long.MAX_VALUE;
+    long stringBytes = 0, templateBytes = 0;
+    long stringSum = 0, templateSum = 0; // of the ids, which both number in the same order
+    for (int round = 0; round < 10; round++) {
+      long bytes = allocatedBytes();
+      long start = System.nanoTime();
+      strings = ff.testFeatures(test);
+      for (int position = 0; position < test.size(); position++) {
+        for (String feature : strings.shared(position)) {
+          stringSum += Math.max(featureIndex.indexOf(feature), 0);
+        }
+        for (int label = 0; label < labelIndex.size(); label++) {
+          for (String feature : strings.given(position, (String) labelIndex.get(label))) {
+            stringSum += Math.max(featureIndex.indexOf(feature), 0);
+          }
+        }
+      }
+      stringTime = Math.min(stringTime, System.nanoTime() - start);
+      stringBytes = allocatedBytes() - bytes;
+
+      bytes = allocatedBytes();
+      start = System.nanoTime();
+      words = templates.words(test);
+      for (int position = 0; position < words.size(); position++) {
+        buffer.clear();
+        templates.shared(words, position, buffer);
+        int n = buffer.lookup(pairIndex, false, 0);
+        for (int k = 0; k < n; k++) {
+          templateSum += buffer.id(k);
+        }
+        for (int label = 0; label < labelIndex.size(); label++) {
+          int first = buffer.size();
+          templates.given(words, position, label, buffer);
+          n = buffer.lookup(pairIndex, false, first);
+          for (int k = 0; k < n; k++) {
+            templateSum += buffer.id(k);
+          }
+        }
+      }
+      templateTime = Math.min(templateTime, System.nanoTime() - start);
+      templateBytes = allocatedBytes() - bytes;
+    }
+
+    System.out.println(String.format("%d tokens x %d labels, same ids: %s", test.size(),
+        labelIndex.size(), stringSum == templateSum ? "PASS" : "*FAIL*"));
+    System.out.println(String.format("strings:   %,12.0f tokens/s, %,8d bytes/token",
+        test.size() / (stringTime / 1e9), stringBytes / test.size()));
+    System.out.println(String.format("templates: %,12.0f tokens/s, %,8d bytes/token",
+        test.size() / (templateTime / 1e9), templateBytes / test.size()));
+  }
+
+  // bytes allocated by this thread so far, or 0 if the JVM cannot tell
+  private static long allocatedBytes() {
+    java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+    if (bean instanceof com.sun.management.ThreadMXBean) {
+      return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(
+          Thread.currentThread().getId());
+    }
+    return 0;
+  }
+}
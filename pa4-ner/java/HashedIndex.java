@@ -0,0 +1,97 @@
+/**
+ * A FeatureIndex without a dictionary: each feature is hashed straight into one
+ * of 2^bits ids, so memory is bounded however many distinct features there are.
+ * Different features can share an id; with signed hashing each feature also gets a
+ * sign from another bit of its hash, so that colliding features tend to cancel out
+ * rather than add up (Weinberger et al., "Feature hashing for large scale multitask
+ * learning", ICML 2009).
+ *
+ * Nothing is stored, so add() does nothing, and hasNames() is false: get() cannot
+ * give the features back.
+ * The hash is MurmurHash3 (32 bits) of the UTF-16 chars of the feature's string.
+ */
+public class HashedIndex implements FeatureIndex {
+
+  private static final int SEED = 0x9747b28c;
+
+  public final int bits;
+  private final boolean signed;
+  private final int mask;
+
+  public HashedIndex(int bits, boolean signed) {
+    if (bits < 1 || bits > 30) {
+      throw new IllegalArgumentException("bits must be between 1 and 30: " + bits);
+    }
+    this.bits = bits;
+    this.signed = signed;
+    this.mask = (1 << bits) - 1;
+  }
+
+  public boolean add(Object o) {
+    return false;
+  }
+
+  public int indexOf(Object o) {
+    return hash(o.toString()) & mask;
+  }
+
+  /** The id of o, complemented (~id, which is negative) if its sign is -1. The sign
+   *  is the top bit of the same hash as the id, and always 1 without signed hashing. */
+  public int signedIndexOf(Object o) {
+    int h = hash(o.toString());
+    return signed && h < 0 ? ~(h & mask) : h & mask;
+  }
+
+  public boolean hasNames() {
+    return false;
+  }
+
+  public boolean isSigned() {
+    return signed;
+  }
+
+  /** featureIndex if its features have signs, otherwise null: the features of other
+   *  indexes all have the sign 1. Only a HashedIndex has signs. */
+  public static HashedIndex signed(FeatureIndex featureIndex) {
+    return featureIndex.isSigned() ? (HashedIndex) featureIndex : null;
+  }
+
+  public Object get(int i) {
+    throw new UnsupportedOperationException("A HashedIndex does not keep its features");
+  }
+
+  public int size() {
+    return 1 << bits;
+  }
+
+  public String toString() {
+    return "[" + size() + " hashed" + (signed ? ", signed" : "") + "]";
+  }
+
+  static int hash(String s) {
+    int h = SEED;
+    int length = s.length();
+    int i = 0;
+    for (; i + 1 < length; i += 2) {
+      h = mix(h, s.charAt(i) | (s.charAt(i + 1) << 16));
+      h = Integer.rotateLeft(h, 13) * 5 + 0xe6546b64;
+    }
+    if (i < length) {
+      h = mix(h, s.charAt(i));
+    }
+    h ^= 2 * length;
+    h ^= h >>> 16;
+    h *= 0x85ebca6b;
+    h ^= h >>> 13;
+    h *= 0xc2b2ae35;
+    h ^= h >>> 16;
+    return h;
+  }
+
+  private static int mix(int h, int k) {
+    k *= 0xcc9e2d51;
+    k = Integer.rotateLeft(k, 15);
+    k *= 0x1b873593;
+    return h ^ k;
+  }
+}
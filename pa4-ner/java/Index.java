@@ -1,6 +1,6 @@
 import java.util.*;
 
-public class Index {
+public class Index implements FeatureIndex {
 
   List objects = new ArrayList();
   Map<Object,Integer> indexes = new HashMap<Object,Integer>();
@@ -22,6 +22,14 @@ public class Index {
     else { return index; }
   }
   
+  public boolean hasNames() {
+    return true;
+  }
+
+  public boolean isSigned() {
+    return false;
+  }
+
   public Object get(int i) {
     return objects.get(i);
   }
@@ -7,23 +7,88 @@ import org.json.JSONTokener;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 
-/** Do not modify this class **/
+/**
+ * Trains an MEMM on a feature file written by FeatureFactory (binary or JSON) and
+ * labels a test feature file with it. The submit script calls runMEMM(), which
+ * keeps the original behavior; main() also takes these options after the two files:
+ *
+ *   -print           print each word with its gold and guessed labels
+ *   -submit          print the guesses in the submission format
+ *   -l1 w            train with an L1 penalty of weight w (OWL-QN)
+ *   -sigma s         width of the L2 prior, 0 for none (default 10)
+ *   -sgd n           train with n epochs of StochasticTrainer instead of QNMinimizer
+ *   -hash b          hash the features into 2^b ids (HashedIndex)
+ *   -signed          with -hash, give each feature a hashed sign
+ *   -save file       write the trained model (CompactModel)
+ *   -load file       decode with a saved model instead of training
+ *   -beam k          decode with BeamViterbi, extending the k best labels (0 for all)
+ */
 public class MEMM {
 
+	static final double DEFAULT_SIGMA = 10.0;
+
 	public static void main(String[] args) throws IOException {
 
 		boolean print = false;
 		boolean submit = false;
+		double l1 = 0.0;
+		double sigma = DEFAULT_SIGMA;
+		String modelFile = null;
+		String loadFile = null;
+		int epochs = 0;
+		int beam = -1;
+		int hashBits = 0;
+		boolean signed = false;
 
-		if (args.length > 2) {
-		    if (args[2].equals("-print")) {
+		for (int i = 2; i < args.length; i++) {
+		    if (args[i].equals("-print")) {
 			print = true;
-		    } else if (args[2].equals("-submit")) {
+		    } else if (args[i].equals("-submit")) {
 			submit = true;
+		    } else if (args[i].equals("-l1")) {
+			l1 = Double.parseDouble(args[++i]);
+		    } else if (args[i].equals("-sigma")) {
+			sigma = Double.parseDouble(args[++i]);
+		    } else if (args[i].equals("-save")) {
+			modelFile = args[++i];
+		    } else if (args[i].equals("-load")) {
+			loadFile = args[++i];
+		    } else if (args[i].equals("-sgd")) {
+			epochs = Integer.parseInt(args[++i]);
+		    } else if (args[i].equals("-hash")) {
+			hashBits = Integer.parseInt(args[++i]);
+		    } else if (args[i].equals("-signed")) {
+			signed = true;
+		    } else if (args[i].equals("-beam")) {
+			beam = Integer.parseInt(args[++i]);
 		    }
 		}
+		FeatureIndex featureIndex = hashBits > 0 ? new HashedIndex(hashBits, signed) : new Index();
 
-		List<Datum> testData = runMEMM(args[0], args[1]);
+		// with -load, the model written by -save is decoded and args[0] is not read
+		long start = System.nanoTime();
+		CompactModel model;
+		if (loadFile != null) {
+			model = CompactModel.read(loadFile);
+			System.err.println(String.format("Loaded in %.2fs", (System.nanoTime() - start) / 1e9));
+		} else {
+			model = epochs > 0 ? trainStochastic(args[0], epochs, sigma, featureIndex)
+					: train(args[0], l1, sigma, featureIndex);
+			System.err.println(String.format("Trained in %.2fs", (System.nanoTime() - start) / 1e9));
+		}
+		System.err.println("Model: " + model.featureIndex.size() + " features, "
+				+ model.weights.length + " weights");
+		if (modelFile != null) {
+			model.write(modelFile);
+		}
+		List<Datum> testData;
+		if (beam >= 0) {
+			BeamViterbi decoder = new BeamViterbi(model.labelIndex, model.featureIndex, model.weights);
+			decoder.setBeam(beam);
+			testData = decode(args[1], decoder, model.labelIndex.size());
+		} else {
+			testData = decode(args[1], model.viterbi());
+		}
 
 		// print words + guess labels for development
 		if (print) {
@@ -48,34 +113,102 @@ public class MEMM {
 
 
     public static List<Datum> runMEMM(String trainFile, String testFile) throws IOException{
+		return decode(testFile, train(trainFile));
+	}
+
+	/** Labels the data in testFile with viterbi and returns it. */
+	public static List<Datum> decode(String testFile, Viterbi viterbi) throws IOException {
 
-		List<Datum> trainData = readData(trainFile);
 		List<Datum> testDataWithMultiplePrevLabels = readData(testFile);
-		
+		List<Datum> testData = firstOfEach(testDataWithMultiplePrevLabels, viterbi.numLabels());
 
-		LogConditionalObjectiveFunction obj = new LogConditionalObjectiveFunction(
-				trainData);
-		double[] initial = new double[obj.domainDimension()];
+		viterbi.decode(testData, testDataWithMultiplePrevLabels);
+
+		return testData;
+	}
+
+	/** Labels the data in testFile with decoder and returns it. */
+	public static List<Datum> decode(String testFile, BeamViterbi decoder, int labels) throws IOException {
+
+		List<Datum> testDataWithMultiplePrevLabels = readData(testFile);
+		List<Datum> testData = firstOfEach(testDataWithMultiplePrevLabels, labels);
+
+		decoder.decode(testData, testDataWithMultiplePrevLabels);
 
-		// restore the original test data from the source
+		return testData;
+	}
+
+	// restore the original test data from the source
+	static List<Datum> firstOfEach(List<Datum> testDataWithMultiplePrevLabels, int labels) {
 		List<Datum> testData = new ArrayList<Datum>();
 		testData.add(testDataWithMultiplePrevLabels.get(0));
-		for (int i = 1; i < testDataWithMultiplePrevLabels.size(); i += obj.labelIndex.size()) {
+		for (int i = 1; i < testDataWithMultiplePrevLabels.size(); i += labels) {
 			testData.add(testDataWithMultiplePrevLabels.get(i));
 		}
+		return testData;
+	}
 
-		QNMinimizer minimizer = new QNMinimizer(15);
-		double[][] weights = obj.to2D(minimizer.minimize(obj, 1e-4, initial,
-				-1, null));
+	/** Trains on the features in trainFile and returns a decoder for the model. */
+	public static Viterbi train(String trainFile) throws IOException {
+		return train(trainFile, 0.0, DEFAULT_SIGMA, new Index()).viterbi();
+	}
 
-		Viterbi viterbi = new Viterbi(obj.labelIndex, obj.featureIndex, weights);
-		viterbi.decode(testData, testDataWithMultiplePrevLabels);
+	/** Trains on the features in trainFile with an L1 penalty of weight l1 (0 for none,
+	 *  otherwise OWL-QN is used) and an L2 prior of width sigma (0 for none), indexing
+	 *  the features with featureIndex (an empty Index, or a HashedIndex), and returns
+	 *  the model without the features whose weights are all zero. */
+	public static CompactModel train(String trainFile, double l1, double sigma, FeatureIndex featureIndex)
+			throws IOException {
 
-		return testData;
+		List<Datum> trainData = readData(trainFile);
+
+		LogConditionalObjectiveFunction obj = new LogConditionalObjectiveFunction(
+				trainData, LogConditionalObjectiveFunction.DEFAULT_THREADS, featureIndex);
+		double[] weights = minimize(obj, l1, sigma);
+
+		return CompactModel.compact(obj.labelIndex, obj.featureIndex, weights);
+	}
+
+	/** Trains on data compiled against featureIndex and labelIndex, as
+	 *  FeatureTemplates.setFeaturesTrain gives it, with an L2 prior of width sigma
+	 *  (0 for none), and returns a decoder for the model. */
+	public static Viterbi train(List<Datum> data, FeatureIndex featureIndex, Index labelIndex,
+			double sigma) {
+		LogConditionalObjectiveFunction obj = new LogConditionalObjectiveFunction(
+				data, LogConditionalObjectiveFunction.DEFAULT_THREADS, featureIndex, labelIndex);
+		return new Viterbi(labelIndex, featureIndex, minimize(obj, 0.0, sigma));
 	}
 
-	// Read words, labels, and features
-	private static List<Datum> readData(String filename) throws IOException {
+	private static double[] minimize(LogConditionalObjectiveFunction obj, double l1, double sigma) {
+		obj.setPrior(sigma > 0 ? new LogPrior(sigma) : null);
+		double[] initial = new double[obj.domainDimension()];
+
+		QNMinimizer minimizer = new QNMinimizer(15);
+		minimizer.useOWLQN(l1);
+		try {
+			return minimizer.minimize(obj, 1e-4, initial, -1, null);
+		} finally {
+			obj.close();
+		}
+	}
+
+	/** Trains for the given number of epochs of StochasticTrainer, streaming the
+	 *  binary feature file trainFile, with an L2 prior of width sigma (0 for none),
+	 *  indexing the features with featureIndex. */
+	public static CompactModel trainStochastic(String trainFile, int epochs, double sigma,
+			FeatureIndex featureIndex) throws IOException {
+		StochasticTrainer trainer = new StochasticTrainer(featureIndex);
+		trainer.epochs = epochs;
+		trainer.sigma = sigma;
+		double[] weights = trainer.train(trainFile);
+		return CompactModel.compact(trainer.labelIndex, trainer.featureIndex, weights);
+	}
+
+	// Read words, labels, and features, from a binary (see FeatureFile) or JSON file
+	static List<Datum> readData(String filename) throws IOException {
+		if (FeatureFile.isFeatureFile(filename)) {
+			return FeatureFile.read(filename);
+		}
 		List<Datum> data = new ArrayList<Datum>();
 		// read the JSON file
 		FileInputStream fstream = new FileInputStream(filename);
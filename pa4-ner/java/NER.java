@@ -10,13 +10,24 @@ public class NER {
     
     public static void main(String[] args) throws IOException {
 	if (args.length < 2) {
-	    System.out.println("USAGE: java -cp classes NER ../data/train ../data/dev");
+	    System.out.println("USAGE: java -cp classes NER ../data/train ../data/dev [-print] [-json | -lazy | -templates]");
 	    return;
 	}	    
 
 	String print = "";
-	if (args.length > 2 && args[2].equals("-print")) {
-	    print = "-print";
+	boolean json = false; // the binary feature format unless -json
+	boolean lazy = false; // decode in this process, computing test features on demand
+	boolean templates = false; // train and decode in this process, on int features
+	for (int i = 2; i < args.length; i++) {
+	    if (args[i].equals("-print")) {
+		print = "-print";
+	    } else if (args[i].equals("-json")) {
+		json = true;
+	    } else if (args[i].equals("-lazy")) {
+		lazy = true;
+	    } else if (args[i].equals("-templates")) {
+		templates = true;
+	    }
 	}
 
 	FeatureFactory ff = new FeatureFactory();
@@ -24,17 +35,52 @@ public class NER {
 	List<Datum> trainData = ff.readData(args[0]);
 	List<Datum> testData = ff.readData(args[1]);
 
+	if (templates) {
+	    // the features of ff as ints, with no strings made
+	    Index labelIndex = new Index();
+	    for (Datum datum : trainData) {
+		labelIndex.add(datum.label);
+	    }
+	    labelIndex.add("O");
+	    FeatureTemplates featureTemplates = ff.templates(labelIndex);
+	    PairIndex pairIndex = new PairIndex();
+	    List<Datum> compiled = featureTemplates.setFeaturesTrain(trainData, pairIndex);
+	    Viterbi viterbi = MEMM.train(compiled, featureTemplates.featureIndex(pairIndex),
+					 labelIndex, MEMM.DEFAULT_SIGMA);
+	    viterbi.decode(testData, featureTemplates.featureIds(testData, pairIndex));
+	    score(testData, print);
+	    return;
+	}
+
 	// add the features
 	List<Datum> trainDataWithFeatures = ff.setFeaturesTrain(trainData);
+
+	if (lazy) {
+	    // no test features in advance: Viterbi asks for them as it goes
+	    ff.writeBinaryData(trainDataWithFeatures, "trainWithFeatures");
+	    Viterbi viterbi = MEMM.train("trainWithFeatures.bin");
+	    viterbi.decode(testData, ff.testFeatures(testData));
+	    score(testData, print);
+	    return;
+	}
+
 	List<Datum> testDataWithFeatures = ff.setFeaturesTest(testData);
 
-	// write the data with the features into JSON files
-	ff.writeData(trainDataWithFeatures, "trainWithFeatures");
-	ff.writeData(testDataWithFeatures, "testWithFeatures");
+	// write the data with the features into binary or JSON files
+	String extension;
+	if (json) {
+	    ff.writeData(trainDataWithFeatures, "trainWithFeatures");
+	    ff.writeData(testDataWithFeatures, "testWithFeatures");
+	    extension = ".json";
+	} else {
+	    ff.writeBinaryData(trainDataWithFeatures, "trainWithFeatures");
+	    ff.writeBinaryData(testDataWithFeatures, "testWithFeatures");
+	    extension = ".bin";
+	}
 
 	// run MEMM
         ProcessBuilder pb =
-	    new ProcessBuilder("java", "-cp", "classes", "-Xmx1G", "MEMM", "trainWithFeatures.json", "testWithFeatures.json", print);
+	    new ProcessBuilder("java", "-cp", "classes", "-Xmx1G", "MEMM", "trainWithFeatures" + extension, "testWithFeatures" + extension, print);
         pb.redirectErrorStream(true);
         Process proc = pb.start();
 
@@ -46,4 +92,15 @@ public class NER {
 	}
 	
     }
+
+    // prints the guesses of data if print is set, then the scores
+    private static void score(List<Datum> data, String print) {
+	if (print.length() > 0) {
+	    for (Datum datum : data) {
+		System.out.println(datum.word + "\t" + datum.label + "\t" + datum.guessLabel);
+	    }
+	}
+	System.out.println();
+	Scorer.score(data);
+    }
 }
\ No newline at end of file
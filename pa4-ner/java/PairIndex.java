@@ -0,0 +1,87 @@
+import java.util.Arrays;
+
+/**
+ * Numbers (template, value) pairs from FeatureTemplates from 0 up, in order of
+ * addition, like Index does for feature strings but without boxing: the pairs are
+ * packed into longs in an open addressing table.
+ */
+public class PairIndex {
+
+  private long[] keys = new long[1024];
+  private int[] ids = new int[1024];
+  private long[] pairs = new long[512]; // the key of each id
+  private int size = 0;
+
+  public PairIndex() {
+    Arrays.fill(keys, -1L);
+  }
+
+  /** The id of (template, value), added if it is new. */
+  public int add(int template, int value) {
+    long key = key(template, value);
+    int slot = find(key);
+    if (keys[slot] == key) {
+      return ids[slot];
+    }
+    keys[slot] = key;
+    ids[slot] = size;
+    if (size == pairs.length) {
+      pairs = Arrays.copyOf(pairs, 2 * size);
+    }
+    pairs[size] = key;
+    if (++size > keys.length / 2) {
+      grow();
+    }
+    return size - 1;
+  }
+
+  /** The id of (template, value), or -1 if it was never added. */
+  public int indexOf(int template, int value) {
+    int slot = find(key(template, value));
+    return keys[slot] == -1L ? -1 : ids[slot];
+  }
+
+  public int size() {
+    return size;
+  }
+
+  /** The template of the pair numbered id. */
+  public int template(int id) {
+    return (int) (pairs[id] >>> 32);
+  }
+
+  /** The value of the pair numbered id. */
+  public int value(int id) {
+    return (int) pairs[id];
+  }
+
+  private static long key(int template, int value) {
+    return ((long) template << 32) | (value & 0xffffffffL);
+  }
+
+  // the slot of key, or the empty slot where it would go
+  private int find(long key) {
+    int mask = keys.length - 1;
+    long h = key * 0x9e3779b97f4a7c15L;
+    int slot = (int) (h ^ (h >>> 32)) & mask;
+    while (keys[slot] != key && keys[slot] != -1L) {
+      slot = (slot + 1) & mask;
+    }
+    return slot;
+  }
+
+  private void grow() {
+    long[] oldKeys = keys;
+    int[] oldIds = ids;
+    keys = new long[2 * oldKeys.length];
+    ids = new int[keys.length];
+    Arrays.fill(keys, -1L);
+    for (int i = 0; i < oldKeys.length; i++) {
+      if (oldKeys[i] != -1L) {
+        int slot = find(oldKeys[i]);
+        keys[slot] = oldKeys[i];
+        ids[slot] = oldIds[i];
+      }
+    }
+  }
+}
@@ -51,6 +51,15 @@ import java.util.List;
  * |g| &lt; eps*max( 1 , |x| ) which is essentially checking to see if the gradient
  * is numerically zero.
  *
+ * L1 REGULARIZATION: useOWLQN(lambda) adds lambda * |x|_1 to the function and
+ * minimizes it with OWL-QN (Andrew and Gao, "Scalable training of L1-regularized
+ * log-linear models", ICML 2007). The function and its gradient stay smooth; the
+ * L-BFGS direction is computed from the pseudo-gradient of the sum, components
+ * that disagree with the steepest descent are dropped, and a backtracking line
+ * search keeps each step in the orthant of the current point, so that weights
+ * which would change sign are set to exactly zero instead. The result is sparse.
+ * With an L2 prior in the function this is an elastic net.
+ *
  * Each of these convergence criteria can be turned on or off by setting the
  * flags:
  * <blockquote><code>
@@ -95,6 +104,7 @@ public class QNMinimizer {
   private static final int a = 0;  // used as array index
   private static final int f = 1;  // used as array index
   private static final int g = 2;  // used as array index
+  private double l1 = 0.0; // weight of the L1 penalty, 0 for plain L-BFGS
   public boolean outputToFile = false;
   public boolean success = false;
   public boolean bracketed = false; // used for linesearch
@@ -125,6 +135,11 @@ public class QNMinimizer {
     mem = m;
   }
 
+  /** Minimizes the function plus lambda * |x|_1 with OWL-QN; 0 turns it off. */
+  public void useOWLQN(double lambda) {
+    l1 = lambda;
+  }
+
   public void setOldOptions() {
     useAveImprovement = true;
     useRelativeNorm = false;
@@ -744,6 +759,7 @@ public class QNMinimizer {
     }
 
     double[] x, newX, grad, newGrad, dir;
+    double[] pgrad = null, newPgrad = null; // pseudo-gradients, for OWL-QN
     double value;
     its = 0;
     fevals = 0;
@@ -763,6 +779,13 @@ public class QNMinimizer {
     // initialize function value and gradient (gradient is stored in grad inside
     // evaluateFunction)
     value = evaluateFunction(dfunction, x, grad);
+    if (l1 > 0) {
+      sayln("OWL-QN with L1 weight " + l1);
+      pgrad = new double[x.length];
+      newPgrad = new double[x.length];
+      value += l1 * ArrayMath.norm_1(x);
+      pseudoGradient(x, grad, pgrad);
+    }
 
     PrintWriter outFile = null;
     PrintWriter infoFile = null;
@@ -786,7 +809,7 @@ public class QNMinimizer {
 
     Record rec = new Record(quiet, functionTolerance, outFile);
     // sets the original gradient and x. Also stores the monitor.
-    rec.start(value, grad, x);
+    rec.start(value, l1 > 0 ? pgrad : grad, x);
 
     // Check if max Evaluations and Iterations have been provided.
     maxFevals = (maxFunctionEvaluations > 0) ? maxFunctionEvaluations
@@ -804,6 +827,7 @@ public class QNMinimizer {
     sayln("                   3-Value ok, gradient negative, positive curvature");
     sayln("                   4-Value ok, gradient negative, negative curvature");
     sayln("               [.. B]  Backtracking");
+    sayln("               [.. O]  Orthant-wise backtracking (OWL-QN)");
     sayln("VALUE          The current function value");
     sayln("TIME           Total elapsed time");
     sayln("|GNORM|        The current norm of the gradient");
@@ -824,8 +848,11 @@ public class QNMinimizer {
 
         // Compute the search direction
         say("<");
-        computeDir(dir, grad, qn);
+        computeDir(dir, l1 > 0 ? pgrad : grad, qn);
         say("> ");
+        if (l1 > 0) {
+          constrainDir(dir, pgrad);
+        }
 
         // sanity check dir
         boolean hasNaNDir = false;
@@ -839,15 +866,21 @@ public class QNMinimizer {
           qn.clear();
           // re-compute the search direction
           say("<");
-          computeDir(dir, grad, qn);
+          computeDir(dir, l1 > 0 ? pgrad : grad, qn);
           say("> ");
+          if (l1 > 0) {
+            constrainDir(dir, pgrad);
+          }
         }
 
         // perform line search
         say("[");
 
         // switch between line search options.
-        switch (lsOpt) {
+        if (l1 > 0) {
+          newPoint = lineSearchOrthant(dfunction, dir, x, newX, grad, pgrad, value);
+          say("O");
+        } else switch (lsOpt) {
         case BACKTRACK:
           newPoint = lineSearchBacktrack(dfunction, dir, x, newX, grad, value);
           say("B");
@@ -878,7 +911,12 @@ public class QNMinimizer {
 
         // Add the current value and gradient to the records, this also monitors
         // X and writes to output
-        rec.add(newValue, newGrad, newX, fevals);
+        if (l1 > 0) {
+          pseudoGradient(newX, newGrad, newPgrad);
+          rec.add(newValue, newPgrad, newX, fevals);
+        } else {
+          rec.add(newValue, newGrad, newX, fevals);
+        }
 
         // shift
         value = newValue;
@@ -887,6 +925,9 @@ public class QNMinimizer {
         // newX = temp;
         System.arraycopy(newX, 0, x, 0, x.length);
         System.arraycopy(newGrad, 0, grad, 0, newGrad.length);
+        if (l1 > 0) {
+          System.arraycopy(newPgrad, 0, pgrad, 0, newPgrad.length);
+        }
 
         if (quiet) {
           System.err.print(".");
@@ -985,6 +1026,84 @@ public class QNMinimizer {
     return dfunc.valueAt(x);
   }
 
+  // pgrad = the pseudo-gradient of f + l1 * |x|_1 at x, grad being that of f: the
+  // one-sided derivative in the direction of steepest descent, or 0 at a kink
+  // where neither side descends
+  private void pseudoGradient(double[] x, double[] grad, double[] pgrad) {
+    for (int i = 0; i < x.length; i++) {
+      if (x[i] > 0) {
+        pgrad[i] = grad[i] + l1;
+      } else if (x[i] < 0) {
+        pgrad[i] = grad[i] - l1;
+      } else if (grad[i] + l1 < 0) {
+        pgrad[i] = grad[i] + l1;
+      } else if (grad[i] - l1 > 0) {
+        pgrad[i] = grad[i] - l1;
+      } else {
+        pgrad[i] = 0.0;
+      }
+    }
+  }
+
+  // zeroes the components of dir that do not point downhill along -pgrad
+  private static void constrainDir(double[] dir, double[] pgrad) {
+    for (int i = 0; i < dir.length; i++) {
+      if (dir[i] * pgrad[i] >= 0) {
+        dir[i] = 0.0;
+      }
+    }
+  }
+
+  /*
+   * lineSearchOrthant is the OWL-QN linesearch: it backtracks along dir, projecting
+   * every trial point onto the orthant of x (or, for zero components, the orthant
+   * that -pgrad points into), until the L1-penalized value decreases enough.
+   */
+  private double[] lineSearchOrthant(LogConditionalObjectiveFunction func, double[] dir,
+      double[] x, double[] newX, double[] grad, double[] pgrad, double lastValue)
+      throws MaxEvaluationsExceeded, SurpriseConvergence {
+
+    double normGradInDir = ArrayMath.innerProduct(dir, pgrad);
+    say("(" + nf.format(normGradInDir) + ")");
+    if (normGradInDir >= 0) {
+      throw new SurpriseConvergence("No descent direction left in the orthant");
+    }
+
+    // the first direction is the pseudo-gradient itself, so start with a unit step
+    double step = (its == 1) ? 1.0 / ArrayMath.norm(dir) : 1.0;
+    double c = 1e-4;
+
+    double[] newPoint = new double[3];
+    while (true) {
+      for (int i = 0; i < x.length; i++) {
+        double orthant = x[i] != 0 ? Math.signum(x[i]) : -Math.signum(pgrad[i]);
+        double value = x[i] + step * dir[i];
+        newX[i] = (value * orthant > 0) ? value : 0.0;
+      }
+      newPoint[f] = func.valueAt(newX) + l1 * ArrayMath.norm_1(newX);
+      fevals += 1;
+      double decrease = 0.0;
+      for (int i = 0; i < x.length; i++) {
+        decrease += pgrad[i] * (newX[i] - x[i]);
+      }
+      if (newPoint[f] <= lastValue + c * decrease) {
+        break;
+      }
+      if (fevals > maxFevals) {
+        throw new MaxEvaluationsExceeded(
+            " Exceeded during linesearch() Function ");
+      }
+      step *= 0.5;
+      if (step < aMin) {
+        throw new SurpriseConvergence("Step size fell below the minimum in the orthant linesearch");
+      }
+      say(".");
+    }
+
+    newPoint[a] = step;
+    return newPoint;
+  }
+
   /*
    * lineSearchBacktrack is the original linesearch used for the first version
    * of QNMinimizer. it only satisfies sufficient descent not the Wolfe
@@ -0,0 +1,264 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Trains the MEMM weights with AdaGrad on mini-batches streamed from a binary feature
+ * file (see FeatureFile), as an alternative to minimizing the whole
+ * LogConditionalObjectiveFunction with QNMinimizer. A JSON feature file cannot be
+ * streamed: it is read whole and copied to a temporary binary file first.
+ *
+ * A first pass over the file builds the feature and label indexes; after that, each
+ * epoch reads the file again, a datum at a time, so only the indexes, the weights and
+ * a shuffle buffer are held in memory. The reader shuffles the datums within a window
+ * of shuffleWindow datums and hands them out in batches of batchSize to the worker
+ * threads, which update the shared weights without locking (Hogwild: the updates of
+ * different batches rarely touch the same features, and a lost update only costs a
+ * little progress). Results therefore vary slightly from run to run with more than
+ * one thread. If a worker fails, the reader stops queueing batches and the failure is
+ * thrown from train().
+ *
+ * Each datum's objective is its negative log likelihood plus 1/N of the L2 prior of
+ * LogConditionalObjectiveFunction, N being the number of datums. The prior is applied
+ * lazily: a feature's weights are only decayed when a batch touches the feature, by
+ * the amount for every batch since it was last touched. Every feature is touched in
+ * every epoch, so at the end no weight lacks more than an epoch of decay.
+ *
+ * The weights are flat and feature-major, as in LogConditionalObjectiveFunction.
+ */
+public class StochasticTrainer {
+
+  public int epochs = 5;
+  public int batchSize = 16;
+  public int shuffleWindow = 10000;
+  public double learningRate = 0.5;
+  public double sigma = 10.0;   // width of the L2 prior, 0 for none
+  public int threads = Runtime.getRuntime().availableProcessors();
+  public long seed = 42;
+  public boolean quiet = false;
+
+  public final FeatureIndex featureIndex;
+  public final Index labelIndex = new Index();
+
+  private static final List<Datum> END = new ArrayList<Datum>(); // no more batches
+
+  private double[] weights;
+  private double[] squares;     // AdaGrad's sum of squared gradients, per weight
+  private int[] lastBatch;      // per feature, the batch count when the prior was last applied
+  private volatile int batches; // batches started so far
+  private int datums;
+
+  public StochasticTrainer() {
+    this(new Index());
+  }
+
+  /** Uses featureIndex, which may be a HashedIndex, for the features. */
+  public StochasticTrainer(FeatureIndex featureIndex) {
+    this.featureIndex = featureIndex;
+  }
+
+  /** Trains on the features in filename, binary or JSON, and returns the weights. */
+  public double[] train(String filename) throws IOException {
+    if (!FeatureFile.isFeatureFile(filename)) {
+      File binary = File.createTempFile("features", ".bin");
+      try {
+        FeatureFile.write(MEMM.readData(filename), binary.getPath());
+        return train(binary.getPath());
+      } finally {
+        binary.delete();
+      }
+    }
+    long start = System.nanoTime();
+    buildIndexes(filename);
+    int labels = labelIndex.size();
+    weights = new double[featureIndex.size() * labels];
+    squares = new double[weights.length];
+    lastBatch = new int[featureIndex.size()];
+    batches = 0;
+    say(String.format("%d datums, %d features, %d labels, %d threads",
+        datums, featureIndex.size(), labels, threads));
+
+    ExecutorService pool = Executors.newFixedThreadPool(threads, new ThreadFactory() {
+      public Thread newThread(Runnable r) {
+        Thread thread = new Thread(r, "trainer");
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+    Random random = new Random(seed);
+    try {
+      for (int epoch = 1; epoch <= epochs; epoch++) {
+        double loss = epoch(filename, pool, random);
+        say(String.format("epoch %d: average loss %.4f, %.2fs", epoch, loss / datums,
+            (System.nanoTime() - start) / 1e9));
+      }
+    } finally {
+      pool.shutdown();
+    }
+    return weights;
+  }
+
+  private void buildIndexes(String filename) throws IOException {
+    datums = 0;
+    FeatureFile.Reader reader = new FeatureFile.Reader(filename);
+    try {
+      for (Datum datum = reader.next(); datum != null; datum = reader.next()) {
+        labelIndex.add(datum.label);
+        for (String feature : datum.features) {
+          featureIndex.add(feature);
+        }
+        datums++;
+      }
+    } finally {
+      reader.close();
+    }
+  }
+
+  // reads filename once, training on its datums, and returns the total loss
+  private double epoch(String filename, ExecutorService pool, Random random) throws IOException {
+    final BlockingQueue<List<Datum>> queue = new ArrayBlockingQueue<List<Datum>>(4 * threads);
+    List<Future<Double>> workers = new ArrayList<Future<Double>>();
+    for (int t = 0; t < threads; t++) {
+      workers.add(pool.submit(new Callable<Double>() {
+        public Double call() throws InterruptedException {
+          return work(queue);
+        }
+      }));
+    }
+
+    FeatureFile.Reader reader = new FeatureFile.Reader(filename);
+    try {
+      List<Datum> window = new ArrayList<Datum>(shuffleWindow);
+      for (Datum datum = reader.next(); datum != null; datum = reader.next()) {
+        datum.compile(featureIndex, labelIndex);
+        datum.features = null;
+        window.add(datum);
+        if (window.size() == shuffleWindow) {
+          dispatch(window, queue, workers, random);
+        }
+      }
+      dispatch(window, queue, workers, random);
+      for (int t = 0; t < threads; t++) {
+        put(END, queue, workers);
+      }
+
+      double loss = 0.0;
+      for (Future<Double> worker : workers) {
+        loss += worker.get();
+      }
+      return loss;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new RuntimeException("Interrupted while training", e);
+    } catch (ExecutionException e) {
+      throw new RuntimeException("Error while training", e.getCause());
+    } finally {
+      reader.close();
+      // stops the workers still waiting for batches if the epoch failed
+      for (Future<Double> worker : workers) {
+        worker.cancel(true);
+      }
+    }
+  }
+
+  // shuffles window and queues it in batches, leaving it empty
+  private void dispatch(List<Datum> window, BlockingQueue<List<Datum>> queue,
+      List<Future<Double>> workers, Random random) throws InterruptedException, ExecutionException {
+    Collections.shuffle(window, random);
+    for (int i = 0; i < window.size(); i += batchSize) {
+      put(new ArrayList<Datum>(window.subList(i, Math.min(i + batchSize, window.size()))), queue, workers);
+    }
+    window.clear();
+  }
+
+  // queues batch; workers only finish at END, so if one finishes before, it failed, and
+  // its exception is thrown rather than waiting forever for room in the queue
+  private void put(List<Datum> batch, BlockingQueue<List<Datum>> queue, List<Future<Double>> workers)
+      throws InterruptedException, ExecutionException {
+    while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+      for (Future<Double> worker : workers) {
+        if (worker.isDone()) {
+          worker.get();
+        }
+      }
+    }
+  }
+
+  // trains on batches from queue until END, and returns their loss
+  private double work(BlockingQueue<List<Datum>> queue) throws InterruptedException {
+    int labels = labelIndex.size();
+    double[] scores = new double[labels];
+    double[] gradient = new double[weights.length]; // only the touched features are nonzero
+    int[] touched = new int[16];
+    boolean[] isTouched = new boolean[featureIndex.size()];
+    double loss = 0.0;
+
+    for (List<Datum> batch = queue.take(); batch != END; batch = queue.take()) {
+      int batchNumber = batches++; // racy, but only the decay amounts depend on it
+      int n = 0;
+      for (Datum datum : batch) {
+        int[] features = datum.featureIds;
+        double[] values = datum.featureValues;
+        Arrays.fill(scores, 0.0);
+        for (int k = 0; k < features.length; k++) {
+          int base = features[k] * labels;
+          double sign = values == null ? 1.0 : values[k];
+          for (int i = 0; i < labels; i++) {
+            scores[i] += sign * weights[base + i];
+          }
+        }
+        double Z = LogConditionalObjectiveFunction.logSum(scores);
+        for (int i = 0; i < labels; i++) {
+          double prob = Math.exp(scores[i] - Z);
+          if (i == datum.labelId) {
+            loss -= Math.log(prob);
+            prob -= 1;
+          }
+          scores[i] = prob / batch.size();
+        }
+        for (int k = 0; k < features.length; k++) {
+          int f = features[k];
+          double sign = values == null ? 1.0 : values[k];
+          if (!isTouched[f]) {
+            isTouched[f] = true;
+            if (n == touched.length) {
+              touched = Arrays.copyOf(touched, 2 * n);
+            }
+            touched[n++] = f;
+          }
+          int base = f * labels;
+          for (int i = 0; i < labels; i++) {
+            gradient[base + i] += sign * scores[i];
+          }
+        }
+      }
+
+      for (int k = 0; k < n; k++) {
+        int f = touched[k];
+        isTouched[f] = false;
+        // the prior for every batch since f was last decayed, this one included
+        int pending = batchNumber + 1 - lastBatch[f];
+        lastBatch[f] = batchNumber + 1;
+        int base = f * labels;
+        for (int i = base; i < base + labels; i++) {
+          double g = gradient[i];
+          if (sigma > 0 && pending > 0) {
+            g += pending * weights[i] / (sigma * sigma * datums);
+          }
+          gradient[i] = 0.0;
+          squares[i] += g * g;
+          if (squares[i] > 0) {
+            weights[i] -= learningRate * g / Math.sqrt(squares[i]);
+          }
+        }
+      }
+    }
+    return loss;
+  }
+
+  private void say(String s) {
+    if (!quiet) {
+      System.err.println(s);
+    }
+  }
+}
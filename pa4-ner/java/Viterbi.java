@@ -2,28 +2,60 @@ import java.util.*;
 
 public class Viterbi {
 
+	/** Computes the features of a position on demand, for decode(List, Features).
+	 *  The features of (position, previousLabel) are shared(position) followed by
+	 *  given(position, previousLabel). */
+	public interface Features {
+		/** The features of position that do not depend on the previous label. */
+		List<String> shared(int position);
+
+		/** The features of position that depend on the previous label. */
+		List<String> given(int position, String previousLabel);
+	}
+
+	/** Like Features, with the features as ids of the model's features, for
+	 *  decode(List, FeatureIds), as FeatureTemplates.featureIds gives them. Each
+	 *  method but id returns the number of features found, which are then
+	 *  id(0), id(1), ... until the next call. */
+	public interface FeatureIds {
+		int shared(int position);
+
+		/** previousLabel is an id of the model's labelIndex. */
+		int given(int position, int previousLabel);
+
+		int id(int k);
+	}
+
+	// adds the scores of the features of a position to an array, for
+	// decode(List, Scores)
+	private interface Scores {
+		void shared(int position, double[] scores);
+
+		void given(int position, int previousLabel, double[] scores);
+	}
+
 	private final Index labelIndex;
-	private final Index featureIndex;
-	private final double[][] weights;
+	private final FeatureIndex featureIndex;
+	private final HashedIndex signed; // featureIndex, if its features have signs
+	private final double[] weights; // feature-major, as in LogConditionalObjectiveFunction
 
-	public Viterbi(Index labelIndex, Index featureIndex, double[][] weights) {
+	public Viterbi(Index labelIndex, FeatureIndex featureIndex, double[] weights) {
 		this.labelIndex = labelIndex;
 		this.featureIndex = featureIndex;
+		this.signed = HashedIndex.signed(featureIndex);
 		this.weights = weights;
 	}
 
 	public void decode(List<Datum> data, List<Datum> dataWithMultiplePrevLabels) {
-		// load words from the data
-		List<String> words = new ArrayList<String>();
-		for (Datum datum : data) {
-			words.add(datum.word);
-		}
+		// look the features up once
+		compile(data);
+		compile(dataWithMultiplePrevLabels);
 
 		int[][] backpointers = new int[data.size()][numLabels()];
 		double[][] scores = new double[data.size()][numLabels()];
 
-		int prevLabel = labelIndex.indexOf(data.get(0).previousLabel);
-		double[] localScores = computeScores(data.get(0).features);
+		int prevLabel = data.get(0).previousLabelId;
+		double[] localScores = computeScores(data.get(0));
 
 		int position = 0;
 		for (int currLabel = 0; currLabel < localScores.length; currLabel++) {
@@ -39,10 +71,77 @@ public class Viterbi {
 			// for each previous label 
 			for (int j = 0; j < numLabels(); j++) {
 				Datum datum = dataWithMultiplePrevLabels.get(i + j);
-				String previousLabel = datum.previousLabel;
-				prevLabel = labelIndex.indexOf(previousLabel);
+				prevLabel = datum.previousLabelId;
+
+				localScores = computeScores(datum);
+				for (int currLabel = 0; currLabel < localScores.length; currLabel++) {
+					double score = localScores[currLabel]
+							+ scores[position - 1][prevLabel];
+					if (prevLabel == 0 || score > scores[position][currLabel]) {
+						backpointers[position][currLabel] = prevLabel;
+						scores[position][currLabel] = score;
+					}
+				}
+			}
+		}
+
+		backtrack(data, scores, backpointers);
+	}
+
+	/** Decodes data without precomputed features: the features of each position are
+	 *  asked from features, those that do not depend on the previous label once per
+	 *  position, the others once per previous label. Only one position's features are
+	 *  held at a time. */
+	public void decode(List<Datum> data, final Features features) {
+		decode(data, new Scores() {
+			public void shared(int position, double[] scores) {
+				addScores(features.shared(position), scores);
+			}
+
+			public void given(int position, int previousLabel, double[] scores) {
+				addScores(features.given(position, (String) labelIndex.get(previousLabel)), scores);
+			}
+		});
+	}
+
+	/** The same, with the features as ids. */
+	public void decode(List<Datum> data, final FeatureIds features) {
+		decode(data, new Scores() {
+			public void shared(int position, double[] scores) {
+				addScores(features, features.shared(position), scores);
+			}
+
+			public void given(int position, int previousLabel, double[] scores) {
+				addScores(features, features.given(position, previousLabel), scores);
+			}
+		});
+	}
+
+	private void decode(List<Datum> data, Scores features) {
+		int[][] backpointers = new int[data.size()][numLabels()];
+		double[][] scores = new double[data.size()][numLabels()];
+		double[] sharedScores = new double[numLabels()];
+		double[] localScores = new double[numLabels()];
+
+		for (int position = 0; position < data.size(); position++) {
+			Arrays.fill(sharedScores, 0.0);
+			features.shared(position, sharedScores);
+
+			if (position == 0) {
+				int prevLabel = labelIndex.indexOf("O");
+				System.arraycopy(sharedScores, 0, localScores, 0, localScores.length);
+				features.given(position, prevLabel, localScores);
+				for (int currLabel = 0; currLabel < localScores.length; currLabel++) {
+					backpointers[position][currLabel] = prevLabel;
+					scores[position][currLabel] = localScores[currLabel];
+				}
+				continue;
+			}
 
-				localScores = computeScores(datum.features);
+			// for each previous label
+			for (int prevLabel = 0; prevLabel < numLabels(); prevLabel++) {
+				System.arraycopy(sharedScores, 0, localScores, 0, localScores.length);
+				features.given(position, prevLabel, localScores);
 				for (int currLabel = 0; currLabel < localScores.length; currLabel++) {
 					double score = localScores[currLabel]
 							+ scores[position - 1][prevLabel];
@@ -54,6 +153,12 @@ public class Viterbi {
 			}
 		}
 
+		backtrack(data, scores, backpointers);
+	}
+
+	// sets the guess labels of data from the best path
+	private void backtrack(List<Datum> data, double[][] scores, int[][] backpointers) {
+		int position;
 		int bestLabel = 0;
 		double bestScore = scores[data.size() - 1][0];
 
@@ -72,24 +177,60 @@ public class Viterbi {
 
 	}
 
-	private double[] computeScores(List<String> features) {
-
-		double[] scores = new double[numLabels()];
+	private void compile(List<Datum> data) {
+		for (Datum datum : data) {
+			if (datum.featureIds == null) {
+				datum.compile(featureIndex, labelIndex);
+			}
+		}
+	}
 
-		for (Object feature : features) {
-			int f = featureIndex.indexOf(feature);
-			if (f < 0) {
+	// adds the weights of features to scores, skipping features not seen in training
+	private void addScores(List<String> features, double[] scores) {
+		for (String feature : features) {
+			int f = signed != null ? signed.signedIndexOf(feature) : featureIndex.indexOf(feature);
+			double sign = 1.0;
+			if (signed != null && f < 0) {
+				f = ~f;
+				sign = -1.0;
+			} else if (f < 0) {
 				continue;
 			}
+			int base = f * scores.length;
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] += sign * weights[base + i];
+			}
+		}
+	}
+
+	// adds the weights of the n features just found by features to scores
+	private void addScores(FeatureIds features, int n, double[] scores) {
+		for (int k = 0; k < n; k++) {
+			int base = features.id(k) * scores.length;
+			for (int i = 0; i < scores.length; i++) {
+				scores[i] += weights[base + i];
+			}
+		}
+	}
+
+	private double[] computeScores(Datum datum) {
+
+		double[] scores = new double[numLabels()];
+
+		int[] features = datum.featureIds;
+		double[] values = datum.featureValues;
+		for (int k = 0; k < features.length; k++) {
+			int base = features[k] * scores.length;
+			double sign = values == null ? 1.0 : values[k];
 			for (int i = 0; i < scores.length; i++) {
-				scores[i] += weights[i][f];
+				scores[i] += sign * weights[base + i];
 			}
 		}
 
 		return scores;
 	}
 
-	private int numLabels() {
+	public int numLabels() {
 		return labelIndex.size();
 	}
 